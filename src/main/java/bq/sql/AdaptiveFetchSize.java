@@ -0,0 +1,159 @@
+package bq.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Ints;
+
+/**
+ * Picks a fetch size so that each driver round trip carries roughly TARGET_FETCH_BYTES, whether
+ * the rows are narrow or wide.
+ *
+ * The initial row width is estimated from ResultSetMetaData. The first SAMPLE_ROWS rows of a
+ * statement are then measured, and the observed width is remembered per SQL string so that later
+ * executions start with a tuned fetch size and skip sampling.
+ */
+public class AdaptiveFetchSize {
+
+  static final int TARGET_FETCH_BYTES = 1024 * 1024;
+  static final int MIN_FETCH_SIZE = 100;
+  static final int MAX_FETCH_SIZE = 50_000;
+  static final int SAMPLE_ROWS = 16;
+  static final int DEFAULT_VARIABLE_WIDTH = 32;
+
+  static final Cache<String, Integer> observedRowWidths =
+      CacheBuilder.newBuilder().maximumSize(1024).build();
+
+  String sql;
+  ResultSet rs;
+  int[] variableWidthColumns;
+  int fixedWidth;
+  int sampledRows = 0;
+  long sampledBytes = 0;
+  int fetchSize;
+
+  private AdaptiveFetchSize() {}
+
+  /**
+   * Sets the initial fetch size on the result set and returns a sampler that should be told about
+   * each row with onRow().
+   */
+  public static AdaptiveFetchSize start(String sql, ResultSet rs) throws SQLException {
+    AdaptiveFetchSize a = new AdaptiveFetchSize();
+    a.sql = sql;
+    a.rs = rs;
+
+    ResultSetMetaData md = rs.getMetaData();
+    int columnCount = md.getColumnCount();
+    int estimatedWidth = 0;
+    int[] variable = new int[columnCount];
+    int variableCount = 0;
+    for (int i = 1; i <= columnCount; i++) {
+      int width = fixedWidth(md.getColumnType(i));
+      if (width > 0) {
+        a.fixedWidth += width;
+        estimatedWidth += width;
+      } else {
+        variable[variableCount++] = i;
+        int precision = md.getPrecision(i);
+        estimatedWidth +=
+            precision > 0 ? Math.min(precision, DEFAULT_VARIABLE_WIDTH) : DEFAULT_VARIABLE_WIDTH;
+      }
+    }
+    a.variableWidthColumns = Arrays.copyOf(variable, variableCount);
+
+    Integer observed = observedRowWidths.getIfPresent(sql);
+    if (observed != null) {
+      a.sampledRows = SAMPLE_ROWS;
+      a.setFetchSize(observed);
+    } else {
+      if (variableCount == 0) {
+        // nothing to learn by sampling
+        a.sampledRows = SAMPLE_ROWS;
+      }
+      a.setFetchSize(estimatedWidth);
+    }
+    return a;
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  boolean isSampling() {
+    return sampledRows < SAMPLE_ROWS;
+  }
+
+  /**
+   * Called after the current row has been consumed. Only the first SAMPLE_ROWS rows are measured.
+   */
+  public void onRow() throws SQLException {
+    if (sampledRows >= SAMPLE_ROWS) {
+      return;
+    }
+    long bytes = fixedWidth;
+    for (int col : variableWidthColumns) {
+      String val = rs.getString(col);
+      bytes += val == null ? 1 : val.length();
+    }
+    sampledBytes += bytes;
+    sampledRows++;
+    if (sampledRows == SAMPLE_ROWS) {
+      int width = Ints.saturatedCast(Math.max(1, sampledBytes / sampledRows));
+      observedRowWidths.put(sql, width);
+      setFetchSize(width);
+    }
+  }
+
+  private void setFetchSize(int rowWidth) throws SQLException {
+    this.fetchSize = fetchSizeForRowWidth(rowWidth);
+    try {
+      rs.setFetchSize(fetchSize);
+    } catch (SQLFeatureNotSupportedException e) {
+      // fetch size is only a hint
+    }
+  }
+
+  public static int fetchSizeForRowWidth(int rowWidth) {
+    int rows = TARGET_FETCH_BYTES / Math.max(1, rowWidth);
+    return Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, rows));
+  }
+
+  /**
+   * Width in bytes of fixed size types, or 0 for variable width types.
+   */
+  static int fixedWidth(int sqlType) {
+    switch (sqlType) {
+      case Types.BOOLEAN:
+      case Types.BIT:
+      case Types.TINYINT:
+        return 1;
+      case Types.SMALLINT:
+        return 2;
+      case Types.INTEGER:
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DATE:
+        return 4;
+      case Types.BIGINT:
+      case Types.DOUBLE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return 8;
+      case Types.TIME_WITH_TIMEZONE:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return 12;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return 16;
+      default:
+        return 0;
+    }
+  }
+}
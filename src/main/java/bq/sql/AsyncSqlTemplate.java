@@ -0,0 +1,127 @@
+package bq.sql;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Non-blocking facade over SqlTemplate. Each call runs on its own virtual thread and returns a
+ * CompletableFuture, so fanning out N independent queries takes about as long as the slowest one.
+ *
+ * A fair semaphore caps the number of statements in flight. Share one AsyncSqlTemplate per
+ * DataSource so that the cap applies to everything that uses it.
+ */
+public class AsyncSqlTemplate {
+
+  public static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+  static final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+
+  SqlTemplate template;
+  Executor executor = virtualThreads;
+  Semaphore permits;
+  int maxConcurrency;
+
+  private AsyncSqlTemplate() {}
+
+  public static AsyncSqlTemplate create(SqlTemplate template) {
+    return create(template, DEFAULT_MAX_CONCURRENCY);
+  }
+
+  public static AsyncSqlTemplate create(SqlTemplate template, int maxConcurrency) {
+    Preconditions.checkNotNull(template);
+    Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be > 0");
+    AsyncSqlTemplate t = new AsyncSqlTemplate();
+    t.template = template;
+    t.maxConcurrency = maxConcurrency;
+    t.permits = new Semaphore(maxConcurrency, true);
+    return t;
+  }
+
+  /**
+   * Runs calls on the given executor instead of a new virtual thread per call.
+   */
+  public AsyncSqlTemplate executor(Executor executor) {
+    Preconditions.checkNotNull(executor);
+    this.executor = executor;
+    return this;
+  }
+
+  public SqlTemplate getTemplate() {
+    return template;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public int getInFlightCount() {
+    return maxConcurrency - permits.availablePermits();
+  }
+
+  public int getWaitingCount() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Runs any SqlTemplate work asynchronously, holding one concurrency permit for its duration.
+   */
+  public <T> CompletableFuture<T> supplyAsync(Function<SqlTemplate, T> fn) {
+    Preconditions.checkNotNull(fn);
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            permits.acquire();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(new DbException("interrupted waiting for permit", e));
+          }
+          try {
+            return fn.apply(template);
+          } finally {
+            permits.release();
+          }
+        },
+        executor);
+  }
+
+  public <T> CompletableFuture<List<T>> queryAsync(
+      Consumer<StatementBuilder> builder, RowMapper<T> mapper) {
+    return supplyAsync(t -> t.query(builder, mapper));
+  }
+
+  public <T> CompletableFuture<Optional<T>> queryFirstAsync(
+      Consumer<StatementBuilder> builder, RowMapper<T> mapper) {
+    return supplyAsync(t -> t.queryFirst(builder, mapper));
+  }
+
+  public <T> CompletableFuture<T> queryResultAsync(
+      Consumer<StatementBuilder> builder, ResultSetProcessor<T> processor) {
+    return supplyAsync(t -> t.queryResult(builder, processor));
+  }
+
+  public CompletableFuture<String> queryStringAsync(Consumer<StatementBuilder> builder) {
+    return supplyAsync(t -> t.queryString(builder));
+  }
+
+  public CompletableFuture<Integer> queryIntAsync(Consumer<StatementBuilder> builder) {
+    return supplyAsync(t -> t.queryInt(builder));
+  }
+
+  public CompletableFuture<Boolean> executeAsync(Consumer<StatementBuilder> builder) {
+    return supplyAsync(t -> t.execute(builder));
+  }
+
+  public CompletableFuture<Integer> executeUpdateAsync(Consumer<StatementBuilder> builder) {
+    return supplyAsync(t -> t.executeUpdate(builder));
+  }
+}
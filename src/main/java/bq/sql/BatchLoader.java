@@ -0,0 +1,177 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Coalesces single-key lookups into one query. Keys passed to load() are collected for up to
+ * maxDelay, or until maxBatchSize distinct keys are waiting, and are then bound as a collection to
+ * the template's only parameter:
+ *
+ * <pre>
+ * BatchLoader&lt;String, Bar&gt; bars =
+ *     BatchLoader.create(template, "select * from bars where ticker in ({{tickers}})", Bar.class, Bar::ticker);
+ * Optional&lt;Bar&gt; bar = bars.get("AAPL");
+ * </pre>
+ *
+ * Each caller receives the first row whose key, as returned by keyOf, equals the key it asked for,
+ * as with queryFirst(). keyOf must therefore return keys of the same type and value as callers
+ * pass in. Callers asking for the same key in the same batch share one future.
+ */
+public class BatchLoader<K, V> {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+  public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(2);
+
+  class Batch {
+    final Map<K, CompletableFuture<Optional<V>>> waiting = Maps.newLinkedHashMap();
+  }
+
+  SqlTemplate template;
+  String sql;
+  RowMapper<V> mapper;
+  Function<V, K> keyOf;
+  int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  Duration maxDelay = DEFAULT_MAX_DELAY;
+  Executor executor = AsyncSqlTemplate.virtualThreads;
+
+  Batch current = null;
+
+  final LongAdder batches = new LongAdder();
+  final LongAdder keys = new LongAdder();
+
+  private BatchLoader() {}
+
+  public static <K, V> BatchLoader<K, V> create(
+      SqlTemplate template, String sql, Class<V> type, Function<V, K> keyOf) {
+    return create(template, sql, RowMappers.of(type), keyOf);
+  }
+
+  /**
+   * @param sql a template with exactly one parameter, such as {@code ticker in ({{tickers}})}
+   */
+  public static <K, V> BatchLoader<K, V> create(
+      SqlTemplate template, String sql, RowMapper<V> mapper, Function<V, K> keyOf) {
+    Preconditions.checkNotNull(template, "template cannot be null");
+    Preconditions.checkNotNull(mapper, "mapper cannot be null");
+    Preconditions.checkNotNull(keyOf, "keyOf cannot be null");
+    Preconditions.checkArgument(
+        ParsedSql.parse(sql).getParamCount() == 1,
+        "sql must have exactly one parameter: %s",
+        sql);
+    BatchLoader<K, V> loader = new BatchLoader<>();
+    loader.template = template;
+    loader.sql = sql;
+    loader.mapper = mapper;
+    loader.keyOf = keyOf;
+    return loader;
+  }
+
+  public BatchLoader<K, V> maxBatchSize(int size) {
+    Preconditions.checkArgument(size > 0, "maxBatchSize must be > 0");
+    this.maxBatchSize = size;
+    return this;
+  }
+
+  /** How long the first key of a batch waits for others. */
+  public BatchLoader<K, V> maxDelay(Duration delay) {
+    Preconditions.checkArgument(
+        delay != null && !delay.isNegative(), "maxDelay must not be negative");
+    this.maxDelay = delay;
+    return this;
+  }
+
+  /** Runs batch queries on the given executor instead of a new virtual thread per batch. */
+  public BatchLoader<K, V> executor(Executor executor) {
+    Preconditions.checkNotNull(executor);
+    this.executor = executor;
+    return this;
+  }
+
+  public CompletableFuture<Optional<V>> load(K key) {
+    Preconditions.checkNotNull(key, "key cannot be null");
+    CompletableFuture<Optional<V>> f;
+    Batch full = null;
+    synchronized (this) {
+      if (current == null) {
+        Batch b = new Batch();
+        current = b;
+        CompletableFuture.delayedExecutor(maxDelay.toNanos(), TimeUnit.NANOSECONDS, executor)
+            .execute(() -> dispatch(b));
+      }
+      f = current.waiting.computeIfAbsent(key, k -> new CompletableFuture<>());
+      if (current.waiting.size() >= maxBatchSize) {
+        full = current;
+        current = null;
+      }
+    }
+    if (full != null) {
+      Batch b = full;
+      executor.execute(() -> run(b));
+    }
+    return f;
+  }
+
+  /**
+   * Blocking form of load(), for call sites that used queryFirst().
+   */
+  public Optional<V> get(K key) {
+    try {
+      return load(key).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new DbException(e.getCause());
+    }
+  }
+
+  private void dispatch(Batch b) {
+    synchronized (this) {
+      if (current != b) {
+        // already dispatched because it was full
+        return;
+      }
+      current = null;
+    }
+    run(b);
+  }
+
+  void run(Batch b) {
+    List<K> batchKeys = Lists.newArrayList(b.waiting.keySet());
+    batches.increment();
+    keys.add(batchKeys.size());
+    try {
+      List<V> rows = template.query(sb -> sb.sql(sql, StatementBuilder.inList(batchKeys)), mapper);
+      Map<K, V> byKey = Maps.newHashMapWithExpectedSize(rows.size());
+      for (V row : rows) {
+        byKey.putIfAbsent(keyOf.apply(row), row);
+      }
+      b.waiting.forEach((k, f) -> f.complete(Optional.ofNullable(byKey.get(k))));
+    } catch (RuntimeException | Error e) {
+      b.waiting.values().forEach(f -> f.completeExceptionally(e));
+    }
+  }
+
+  /** Queries issued so far. */
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  /** Distinct keys loaded so far, across all batches. */
+  public long getKeyCount() {
+    return keys.sum();
+  }
+}
@@ -0,0 +1,183 @@
+package bq.sql;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Type-specific setters for bind values, so that binding a Long calls setLong() rather than going
+ * through setObject() and a conversion.
+ *
+ * The setter for each value class is chosen once per JVM. Each ParsedSql also keeps a BindPlan
+ * that remembers the class and setter last used at each of its parameters, so binding the same
+ * template repeatedly, as in a batch, costs one class comparison per value.
+ */
+class BindPlan {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @FunctionalInterface
+  interface Binder {
+    void bind(PreparedStatement ps, int index, Object val) throws SQLException;
+  }
+
+  record Slot(Class<?> type, Binder binder) {}
+
+  static final Binder NULL = (ps, i, v) -> ps.setObject(i, null);
+  static final Binder OBJECT = (ps, i, v) -> ps.setObject(i, v);
+
+  static final ClassValue<Binder> binders =
+      new ClassValue<>() {
+        @Override
+        protected Binder computeValue(Class<?> type) {
+          return binderFor(type);
+        }
+      };
+
+  /** PreparedStatement classes whose driver rejected setObject(LocalDate). */
+  static final Set<Class<?>> localDateUnsupported = ConcurrentHashMap.newKeySet();
+
+  // Slot is immutable, so racing writers can at worst replace each other's entries
+  final Slot[] slots;
+
+  BindPlan(int paramCount) {
+    this.slots = new Slot[paramCount];
+  }
+
+  /**
+   * Binds val to the statement at index, which is the param'th parameter of this plan's template.
+   */
+  void bind(PreparedStatement ps, int param, int index, Object val) throws SQLException {
+    if (val == null) {
+      NULL.bind(ps, index, null);
+      return;
+    }
+    Class<?> type = val.getClass();
+    Slot slot = slots[param];
+    if (slot == null || slot.type() != type) {
+      slot = new Slot(type, binders.get(type));
+      slots[param] = slot;
+    }
+    slot.binder().bind(ps, index, val);
+  }
+
+  /**
+   * Binds a single value without a plan.
+   */
+  static void bind(PreparedStatement ps, int index, Object val) throws SQLException {
+    if (val == null) {
+      NULL.bind(ps, index, null);
+    } else {
+      binders.get(val.getClass()).bind(ps, index, val);
+    }
+  }
+
+  static Binder binderFor(Class<?> type) {
+    if (type == String.class) {
+      return (ps, i, v) -> ps.setString(i, (String) v);
+    }
+    if (type == Long.class) {
+      return (ps, i, v) -> ps.setLong(i, (Long) v);
+    }
+    if (type == Integer.class) {
+      return (ps, i, v) -> ps.setInt(i, (Integer) v);
+    }
+    if (type == Double.class) {
+      return (ps, i, v) -> ps.setDouble(i, (Double) v);
+    }
+    if (type == Float.class) {
+      return (ps, i, v) -> ps.setFloat(i, (Float) v);
+    }
+    if (type == Short.class) {
+      return (ps, i, v) -> ps.setShort(i, (Short) v);
+    }
+    if (type == Byte.class) {
+      return (ps, i, v) -> ps.setByte(i, (Byte) v);
+    }
+    if (type == Boolean.class) {
+      return (ps, i, v) -> ps.setBoolean(i, (Boolean) v);
+    }
+    if (type == BigDecimal.class) {
+      return (ps, i, v) -> ps.setBigDecimal(i, (BigDecimal) v);
+    }
+    if (type == Instant.class) {
+      return (ps, i, v) -> ps.setTimestamp(i, Timestamp.from((Instant) v));
+    }
+    if (type == ZonedDateTime.class) {
+      return (ps, i, v) -> ps.setTimestamp(i, Timestamp.from(((ZonedDateTime) v).toInstant()));
+    }
+    if (type == LocalDate.class) {
+      return BindPlan::bindLocalDate;
+    }
+    return OBJECT;
+  }
+
+  /**
+   * The SQL element type for binding values as an array, from the class of the first non-null
+   * element, or null if there is no such element or its class has no obvious SQL type.
+   */
+  static String sqlArrayType(Collection<?> values) {
+    for (Object val : values) {
+      if (val != null) {
+        return sqlArrayType(val.getClass());
+      }
+    }
+    return null;
+  }
+
+  static String sqlArrayType(Class<?> type) {
+    if (type == String.class) {
+      return "VARCHAR";
+    }
+    if (type == Long.class) {
+      return "BIGINT";
+    }
+    if (type == Integer.class) {
+      return "INTEGER";
+    }
+    if (type == Short.class) {
+      return "SMALLINT";
+    }
+    if (type == Double.class) {
+      return "DOUBLE";
+    }
+    if (type == Float.class) {
+      return "FLOAT";
+    }
+    if (type == Boolean.class) {
+      return "BOOLEAN";
+    }
+    if (type == LocalDate.class) {
+      return "DATE";
+    }
+    return null;
+  }
+
+  /**
+   * Binds a LocalDate as a date where the driver supports JDBC 4.2 types, and as ISO text, which
+   * is how dates were always bound, where it does not.
+   */
+  static void bindLocalDate(PreparedStatement ps, int index, Object val) throws SQLException {
+    LocalDate d = (LocalDate) val;
+    Class<?> psClass = ps.getClass();
+    if (!localDateUnsupported.contains(psClass)) {
+      try {
+        ps.setObject(index, d);
+        return;
+      } catch (SQLException e) {
+        logger.atFine().withCause(e).log("%s does not accept LocalDate; binding as text", psClass);
+        localDateUnsupported.add(psClass);
+      }
+    }
+    ps.setString(index, d.toString());
+  }
+}
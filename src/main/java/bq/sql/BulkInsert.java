@@ -0,0 +1,262 @@
+package bq.sql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Collections2;
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Bulk loads rows into a table. Each row holds a value for every column, in table order.
+ *
+ * On DuckDB, rows are streamed through the native Appender. Other drivers fall back to JDBC
+ * batching of a generated INSERT. DuckDB is not a compile-time dependency, so the Appender is
+ * driven through method handles that are resolved once.
+ */
+public class BulkInsert {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String DUCKDB_CONNECTION_CLASS = "org.duckdb.DuckDBConnection";
+  static final String DUCKDB_DEFAULT_SCHEMA = "main";
+
+  static Supplier<Appender> appender = Suppliers.memoize(Appender::resolve);
+
+  private BulkInsert() {}
+
+  /**
+   * Method handles for org.duckdb.DuckDBAppender, or unavailable if DuckDB is not on the
+   * classpath.
+   */
+  static class Appender {
+    Class<?> connectionClass;
+    MethodHandle create;
+    MethodHandle beginRow;
+    MethodHandle endRow;
+    MethodHandle close;
+    MethodHandle appendBoolean;
+    MethodHandle appendByte;
+    MethodHandle appendShort;
+    MethodHandle appendInt;
+    MethodHandle appendLong;
+    MethodHandle appendFloat;
+    MethodHandle appendDouble;
+    MethodHandle appendString;
+    MethodHandle appendBigDecimal;
+    MethodHandle appendLocalDateTime;
+
+    boolean isAvailable() {
+      return connectionClass != null;
+    }
+
+    static Appender resolve() {
+      Appender a = new Appender();
+      try {
+        Class<?> connectionClass = Class.forName(DUCKDB_CONNECTION_CLASS);
+        Class<?> appenderClass = Class.forName("org.duckdb.DuckDBAppender");
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        a.create =
+            lookup.findVirtual(
+                connectionClass,
+                "createAppender",
+                MethodType.methodType(appenderClass, String.class, String.class));
+        a.beginRow =
+            lookup.findVirtual(appenderClass, "beginRow", MethodType.methodType(void.class));
+        a.endRow = lookup.findVirtual(appenderClass, "endRow", MethodType.methodType(void.class));
+        a.close = lookup.findVirtual(appenderClass, "close", MethodType.methodType(void.class));
+        a.appendBoolean = append(lookup, appenderClass, "append", boolean.class);
+        a.appendByte = append(lookup, appenderClass, "append", byte.class);
+        a.appendShort = append(lookup, appenderClass, "append", short.class);
+        a.appendInt = append(lookup, appenderClass, "append", int.class);
+        a.appendLong = append(lookup, appenderClass, "append", long.class);
+        a.appendFloat = append(lookup, appenderClass, "append", float.class);
+        a.appendDouble = append(lookup, appenderClass, "append", double.class);
+        a.appendString = append(lookup, appenderClass, "append", String.class);
+        a.appendBigDecimal = append(lookup, appenderClass, "appendBigDecimal", BigDecimal.class);
+        a.appendLocalDateTime =
+            append(lookup, appenderClass, "appendLocalDateTime", LocalDateTime.class);
+        a.connectionClass = connectionClass;
+      } catch (ReflectiveOperationException | LinkageError e) {
+        logger.atFine().withCause(e).log("DuckDB appender not available");
+        a.connectionClass = null;
+      }
+      return a;
+    }
+
+    static MethodHandle append(
+        MethodHandles.Lookup lookup, Class<?> appenderClass, String name, Class<?> type)
+        throws ReflectiveOperationException {
+      return lookup
+          .findVirtual(appenderClass, name, MethodType.methodType(void.class, type))
+          .asType(MethodType.methodType(void.class, Object.class, type));
+    }
+
+    void append(Object appender, Object val) throws Throwable {
+      if (val == null) {
+        appendString.invokeExact(appender, (String) null);
+      } else if (val instanceof String s) {
+        appendString.invokeExact(appender, s);
+      } else if (val instanceof Double d) {
+        appendDouble.invokeExact(appender, d.doubleValue());
+      } else if (val instanceof Long l) {
+        appendLong.invokeExact(appender, l.longValue());
+      } else if (val instanceof Integer i) {
+        appendInt.invokeExact(appender, i.intValue());
+      } else if (val instanceof Boolean b) {
+        appendBoolean.invokeExact(appender, b.booleanValue());
+      } else if (val instanceof Float f) {
+        appendFloat.invokeExact(appender, f.floatValue());
+      } else if (val instanceof Short s) {
+        appendShort.invokeExact(appender, s.shortValue());
+      } else if (val instanceof Byte b) {
+        appendByte.invokeExact(appender, b.byteValue());
+      } else if (val instanceof BigDecimal bd) {
+        appendBigDecimal.invokeExact(appender, bd);
+      } else if (val instanceof LocalDateTime t) {
+        appendLocalDateTime.invokeExact(appender, t);
+      } else if (val instanceof Instant t) {
+        // local wall-clock time, as setTimestamp() stores it on the JDBC path
+        appendLocalDateTime.invokeExact(
+            appender, LocalDateTime.ofInstant(t, ZoneId.systemDefault()));
+      } else if (val instanceof ZonedDateTime t) {
+        appendLocalDateTime.invokeExact(
+            appender, LocalDateTime.ofInstant(t.toInstant(), ZoneId.systemDefault()));
+      } else if (val instanceof OffsetDateTime t) {
+        appendLocalDateTime.invokeExact(
+            appender, LocalDateTime.ofInstant(t.toInstant(), ZoneId.systemDefault()));
+      } else if (val instanceof java.sql.Timestamp t) {
+        appendLocalDateTime.invokeExact(appender, t.toLocalDateTime());
+      } else if (val instanceof LocalDate d) {
+        // there is no date append in this version of the appender; DuckDB casts the text
+        appendString.invokeExact(appender, d.toString());
+      } else {
+        appendString.invokeExact(appender, val.toString());
+      }
+    }
+  }
+
+  /**
+   * True if the connection is, or wraps, a DuckDB connection that the Appender can be used with.
+   */
+  public static boolean isDuckDb(Connection c) {
+    Appender a = appender.get();
+    if (!a.isAvailable()) {
+      return false;
+    }
+    try {
+      return a.connectionClass.isInstance(c) || c.isWrapperFor(a.connectionClass);
+    } catch (SQLException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Inserts the rows through the DuckDB Appender when possible, otherwise through JDBC batches.
+   */
+  public static long insert(
+      Connection c, String table, Iterable<? extends List<?>> rows, int batchSize)
+      throws SQLException {
+    if (isDuckDb(c)) {
+      return append(c, table, rows);
+    }
+    return insertBatch(c, table, rows, batchSize);
+  }
+
+  public static long append(Connection c, String table, Iterable<? extends List<?>> rows)
+      throws SQLException {
+    Preconditions.checkNotNull(table, "table cannot be null");
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    Appender a = appender.get();
+    Preconditions.checkState(isDuckDb(c), "not a DuckDB connection: %s", c);
+
+    List<String> parts = Splitter.on('.').trimResults().splitToList(table);
+    Preconditions.checkArgument(parts.size() <= 2, "invalid table name: %s", table);
+    String schema = parts.size() == 2 ? parts.get(0) : DUCKDB_DEFAULT_SCHEMA;
+    String name = parts.getLast();
+
+    Object duck = a.connectionClass.isInstance(c) ? c : c.unwrap(a.connectionClass);
+    long count = 0;
+    try {
+      Object appender = a.create.invoke(duck, schema, name);
+      try {
+        for (List<?> row : rows) {
+          a.beginRow.invoke(appender);
+          for (Object val : row) {
+            a.append(appender, val);
+          }
+          a.endRow.invoke(appender);
+          count++;
+        }
+      } finally {
+        // close flushes the remaining rows
+        a.close.invoke(appender);
+      }
+    } catch (SQLException | RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new DbException(e);
+    }
+    return count;
+  }
+
+  public static long insertBatch(
+      Connection c, String table, Iterable<? extends List<?>> rows, int batchSize)
+      throws SQLException {
+    Preconditions.checkNotNull(table, "table cannot be null");
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+
+    Iterator<? extends List<?>> it = rows.iterator();
+    if (!it.hasNext()) {
+      return 0;
+    }
+    List<?> first = it.next();
+    String sql =
+        String.format(
+            "insert into %s values (%s)",
+            table, Joiner.on(", ").join(Collections2.transform(first, v -> "?")));
+
+    long count = 0;
+    try (PreparedStatement ps = c.prepareStatement(sql)) {
+      List<?> row = first;
+      int pending = 0;
+      while (row != null) {
+        Preconditions.checkArgument(
+            row.size() == first.size(), "expected %s values but got %s", first.size(), row.size());
+        for (int i = 0; i < row.size(); i++) {
+          BindPlan.bind(ps, i + 1, row.get(i));
+        }
+        ps.addBatch();
+        pending++;
+        count++;
+        if (pending >= batchSize) {
+          ps.executeBatch();
+          pending = 0;
+        }
+        row = it.hasNext() ? it.next() : null;
+      }
+      if (pending > 0) {
+        ps.executeBatch();
+      }
+    }
+    return count;
+  }
+}
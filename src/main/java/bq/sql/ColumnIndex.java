@@ -0,0 +1,87 @@
+package bq.sql;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Case-insensitive map from column label to 1-based column index, built once per ResultSet.
+ *
+ * Uses open addressing with linear probing over parallel arrays, so a lookup is a hash of the
+ * label and usually one comparison, with no allocation. When a label appears more than once, the
+ * first column wins, as with ResultSet.findColumn().
+ */
+class ColumnIndex {
+
+  static final int NOT_FOUND = -1;
+
+  String[] labels;
+  int[] indexes;
+  int mask;
+  int size;
+
+  private ColumnIndex() {}
+
+  static ColumnIndex create(ResultSetMetaData md) throws SQLException {
+    int count = md.getColumnCount();
+    String[] labels = new String[count];
+    for (int i = 0; i < count; i++) {
+      labels[i] = md.getColumnLabel(i + 1);
+    }
+    return create(labels);
+  }
+
+  static ColumnIndex create(String... columnLabels) {
+    int capacity = Integer.highestOneBit(Math.max(4, columnLabels.length) * 2 - 1) << 1;
+    ColumnIndex ci = new ColumnIndex();
+    ci.labels = new String[capacity];
+    ci.indexes = new int[capacity];
+    ci.mask = capacity - 1;
+    for (int i = 0; i < columnLabels.length; i++) {
+      if (columnLabels[i] != null) {
+        ci.put(columnLabels[i], i + 1);
+      }
+    }
+    return ci;
+  }
+
+  private void put(String label, int index) {
+    int slot = hash(label) & mask;
+    while (labels[slot] != null) {
+      if (labels[slot].equalsIgnoreCase(label)) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    labels[slot] = label;
+    indexes[slot] = index;
+    size++;
+  }
+
+  /**
+   * Returns the 1-based index of the column, or NOT_FOUND.
+   */
+  int get(String label) {
+    int slot = hash(label) & mask;
+    String candidate;
+    while ((candidate = labels[slot]) != null) {
+      if (candidate == label || candidate.equalsIgnoreCase(label)) {
+        return indexes[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return NOT_FOUND;
+  }
+
+  int size() {
+    return size;
+  }
+
+  static int hash(String s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + Character.toLowerCase(s.charAt(i));
+    }
+    // spread the high bits, since the table is indexed by the low ones
+    return h ^ (h >>> 16);
+  }
+}
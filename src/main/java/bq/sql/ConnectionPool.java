@@ -0,0 +1,464 @@
+package bq.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Bounded pool that wraps any Supplier&lt;Connection&gt;. The pool is itself a
+ * Supplier&lt;Connection&gt;, so it can be passed straight to SqlTemplate.create().
+ *
+ * Borrowers queue fairly on a semaphore rather than a monitor, so waiting virtual threads do not
+ * pin their carriers. Connections handed out are proxies whose close() returns the underlying
+ * connection to the pool. The supplier must return a new physical connection on each call.
+ */
+public class ConnectionPool implements Supplier<Connection>, AutoCloseable {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  Supplier<Connection> supplier;
+
+  int minSize = 0;
+  int maxSize = 10;
+  Duration acquireTimeout = Duration.ofSeconds(30);
+  Duration idleTimeout = Duration.ofMinutes(10);
+  boolean validateOnBorrow = true;
+  int validationTimeoutSeconds = 5;
+
+  Semaphore permits;
+  ReentrantLock lock = new ReentrantLock();
+  Deque<PooledConnection> idle = new ArrayDeque<>();
+  AtomicInteger total = new AtomicInteger();
+  AtomicInteger active = new AtomicInteger();
+  volatile boolean closed = false;
+
+  LongAdder acquireCount = new LongAdder();
+  LongAdder waitCount = new LongAdder();
+  LongAdder timeoutCount = new LongAdder();
+  LongAdder createdCount = new LongAdder();
+  LongAdder destroyedCount = new LongAdder();
+  LongAdder validationFailureCount = new LongAdder();
+  LongAdder totalWaitNanos = new LongAdder();
+  LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+  LongAccumulator peakActive = new LongAccumulator(Math::max, 0);
+
+  private ConnectionPool() {}
+
+  public static ConnectionPool create(Supplier<Connection> supplier) {
+    Preconditions.checkNotNull(supplier);
+    ConnectionPool pool = new ConnectionPool();
+    pool.supplier = supplier;
+    pool.permits = new Semaphore(pool.maxSize, true);
+    return pool;
+  }
+
+  public static ConnectionPool create(DataSource ds) {
+    Preconditions.checkNotNull(ds);
+    return create(
+        () -> {
+          try {
+            return ds.getConnection();
+          } catch (SQLException e) {
+            throw new DbException(e);
+          }
+        });
+  }
+
+  public ConnectionPool minSize(int minSize) {
+    Preconditions.checkArgument(minSize >= 0, "minSize must be >= 0");
+    Preconditions.checkArgument(minSize <= maxSize, "minSize must be <= maxSize");
+    this.minSize = minSize;
+    return this;
+  }
+
+  public ConnectionPool maxSize(int maxSize) {
+    Preconditions.checkArgument(maxSize > 0, "maxSize must be > 0");
+    Preconditions.checkArgument(minSize <= maxSize, "minSize must be <= maxSize");
+    Preconditions.checkState(total.get() == 0, "maxSize cannot be changed once in use");
+    this.maxSize = maxSize;
+    this.permits = new Semaphore(maxSize, true);
+    return this;
+  }
+
+  public ConnectionPool acquireTimeout(Duration timeout) {
+    Preconditions.checkNotNull(timeout);
+    this.acquireTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * Idle connections beyond minSize are closed once they have been idle this long. The pool has no
+   * background thread: eviction only happens when a connection is returned or evictIdle() is
+   * called, so a pool that goes quiet keeps its idle connections until then.
+   */
+  public ConnectionPool idleTimeout(Duration timeout) {
+    Preconditions.checkNotNull(timeout);
+    this.idleTimeout = timeout;
+    return this;
+  }
+
+  public ConnectionPool validateOnBorrow(boolean validate) {
+    this.validateOnBorrow = validate;
+    return this;
+  }
+
+  /**
+   * Opens connections until minSize are idle or in use. This is the only way the pool is filled up
+   * to minSize; connections destroyed after failing validation, or closed while borrowed, are not
+   * replaced until warmUp() is called again or a borrower needs one.
+   */
+  public ConnectionPool warmUp() {
+    List<PooledConnection> created = Lists.newArrayList();
+    while (total.get() < minSize) {
+      created.add(newConnection());
+    }
+    lock.lock();
+    try {
+      created.forEach(pc -> idle.addFirst(pc));
+    } finally {
+      lock.unlock();
+    }
+    return this;
+  }
+
+  @Override
+  public Connection get() {
+    Preconditions.checkState(!closed, "pool is closed");
+    acquireCount.increment();
+    long start = System.nanoTime();
+    // a zero timeout, unlike tryAcquire(), respects fairness and won't barge ahead of waiters
+    boolean acquired = tryAcquire(0);
+    if (!acquired) {
+      waitCount.increment();
+      acquired = tryAcquire(acquireTimeout.toNanos());
+      long waited = System.nanoTime() - start;
+      totalWaitNanos.add(waited);
+      maxWaitNanos.accumulate(waited);
+      if (!acquired) {
+        timeoutCount.increment();
+        throw new DbException(
+            String.format("timed out after %s waiting for connection: %s", acquireTimeout, this));
+      }
+    }
+
+    try {
+      PooledConnection pc = borrowIdle();
+      if (pc == null) {
+        pc = newConnection();
+      }
+      peakActive.accumulate(active.incrementAndGet());
+      return pc.lease();
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private boolean tryAcquire(long nanos) {
+    try {
+      return permits.tryAcquire(nanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DbException("interrupted waiting for connection", e);
+    }
+  }
+
+  private PooledConnection borrowIdle() {
+    while (true) {
+      PooledConnection pc;
+      lock.lock();
+      try {
+        pc = idle.pollFirst();
+      } finally {
+        lock.unlock();
+      }
+      if (pc == null) {
+        return null;
+      }
+      if (!validateOnBorrow || isValid(pc)) {
+        return pc;
+      }
+      validationFailureCount.increment();
+      destroy(pc);
+    }
+  }
+
+  private boolean isValid(PooledConnection pc) {
+    try {
+      return pc.connection.isValid(validationTimeoutSeconds);
+    } catch (SQLException | RuntimeException e) {
+      logger.atFine().withCause(e).log("validation failed for %s", pc.connection);
+      return false;
+    }
+  }
+
+  private PooledConnection newConnection() {
+    Connection c = supplier.get();
+    Preconditions.checkState(c != null, "supplier returned null connection");
+    PooledConnection pc = new PooledConnection(c);
+    total.incrementAndGet();
+    createdCount.increment();
+    return pc;
+  }
+
+  void release(PooledConnection pc) {
+    active.decrementAndGet();
+    try {
+      boolean reusable = !closed && !pc.connection.isClosed();
+      if (reusable && pc.connection.getAutoCommit() != pc.autoCommit) {
+        // don't let an abandoned transaction leak into the next borrower
+        pc.connection.rollback();
+        pc.connection.setAutoCommit(pc.autoCommit);
+      }
+      if (reusable) {
+        pc.lastReturnedNanos = System.nanoTime();
+        lock.lock();
+        try {
+          idle.addFirst(pc);
+        } finally {
+          lock.unlock();
+        }
+      } else {
+        destroy(pc);
+      }
+    } catch (SQLException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("problem returning connection to pool");
+      destroy(pc);
+    } finally {
+      permits.release();
+    }
+    evictIdle();
+  }
+
+  /**
+   * Closes connections that have been idle longer than idleTimeout, keeping at least minSize. This
+   * runs whenever a connection is returned; callers that want idle connections closed while the
+   * pool is quiet should call it, and warmUp(), on a schedule of their own.
+   */
+  public void evictIdle() {
+    long cutoff = System.nanoTime() - idleTimeout.toNanos();
+    List<PooledConnection> evicted = Lists.newArrayList();
+    lock.lock();
+    try {
+      // the least recently used connections are at the end of the deque
+      while (!idle.isEmpty()
+          && total.get() - evicted.size() > minSize
+          && idle.peekLast().lastReturnedNanos - cutoff < 0) {
+        evicted.add(idle.pollLast());
+      }
+    } finally {
+      lock.unlock();
+    }
+    evicted.forEach(this::destroy);
+  }
+
+  private void destroy(PooledConnection pc) {
+    total.decrementAndGet();
+    destroyedCount.increment();
+    try {
+      pc.connection.close();
+    } catch (SQLException | RuntimeException e) {
+      logger.atFine().withCause(e).log("problem closing %s", pc.connection);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    List<PooledConnection> all;
+    lock.lock();
+    try {
+      all = Lists.newArrayList(idle);
+      idle.clear();
+    } finally {
+      lock.unlock();
+    }
+    all.forEach(this::destroy);
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  public int getIdleCount() {
+    lock.lock();
+    try {
+      return idle.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getTotalCount() {
+    return total.get();
+  }
+
+  public int getPeakActiveCount() {
+    return (int) peakActive.get();
+  }
+
+  /**
+   * Number of callers currently queued for a connection.
+   */
+  public int getWaitingCount() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Fraction of maxSize currently in use.
+   */
+  public double getSaturation() {
+    return (double) getActiveCount() / maxSize;
+  }
+
+  public long getAcquireCount() {
+    return acquireCount.sum();
+  }
+
+  /**
+   * Number of acquisitions that could not be satisfied immediately.
+   */
+  public long getWaitCount() {
+    return waitCount.sum();
+  }
+
+  public long getTimeoutCount() {
+    return timeoutCount.sum();
+  }
+
+  public long getCreatedCount() {
+    return createdCount.sum();
+  }
+
+  public long getDestroyedCount() {
+    return destroyedCount.sum();
+  }
+
+  public long getValidationFailureCount() {
+    return validationFailureCount.sum();
+  }
+
+  public Duration getTotalWaitTime() {
+    return Duration.ofNanos(totalWaitNanos.sum());
+  }
+
+  public Duration getMaxWaitTime() {
+    return Duration.ofNanos(maxWaitNanos.get());
+  }
+
+  public String toString() {
+    return String.format(
+        "ConnectionPool{active=%d, idle=%d, max=%d, waiting=%d, waits=%d, timeouts=%d, maxWait=%s}",
+        getActiveCount(),
+        getIdleCount(),
+        maxSize,
+        getWaitingCount(),
+        getWaitCount(),
+        getTimeoutCount(),
+        getMaxWaitTime());
+  }
+
+  class PooledConnection {
+    final Connection connection;
+    final boolean autoCommit;
+    volatile long lastReturnedNanos = System.nanoTime();
+
+    PooledConnection(Connection c) {
+      this.connection = c;
+      boolean ac = true;
+      try {
+        ac = c.getAutoCommit();
+      } catch (SQLException e) {
+        logger.atFine().withCause(e).log("could not read autoCommit");
+      }
+      this.autoCommit = ac;
+    }
+
+    /**
+     * A new proxy for each borrow, so that a handle kept after close() stays closed even once the
+     * connection has been lent to someone else.
+     */
+    Connection lease() {
+      return (Connection)
+          Proxy.newProxyInstance(
+              Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new Lease(this));
+    }
+  }
+
+  class Lease implements InvocationHandler {
+    final PooledConnection pc;
+    final AtomicBoolean closed = new AtomicBoolean(false);
+
+    Lease(PooledConnection pc) {
+      this.pc = pc;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Connection connection = pc.connection;
+      switch (method.getName()) {
+        case "close":
+          if (closed.compareAndSet(false, true)) {
+            release(pc);
+          }
+          return null;
+        case "isClosed":
+          return closed.get() || connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled[" + connection + "]";
+        case "unwrap":
+          if (((Class<?>) args[0]).isInstance(connection)) {
+            return connection;
+          }
+          break;
+        case "isWrapperFor":
+          if (((Class<?>) args[0]).isInstance(connection)) {
+            return true;
+          }
+          break;
+        default:
+          if (closed.get()) {
+            throw new SQLException("connection has been returned to the pool");
+          }
+      }
+      try {
+        return method.invoke(connection, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package bq.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Columnar copy of a result set. Each column is a dense primitive array with a BitSet of the rows
+ * that were SQL NULL.
+ *
+ * Numeric columns are stored as double[] or long[], dates and timestamps as epoch millis in a
+ * long[], and everything else as dictionary-encoded strings. Build one with FrameReader.
+ */
+public class Frame {
+
+  static final int MIN_CAPACITY = 16;
+
+  Column[] columns;
+  ColumnIndex columnIndex;
+  int rowCount;
+
+  Frame(Column[] columns, int rowCount) {
+    this.columns = columns;
+    this.rowCount = rowCount;
+    String[] names = new String[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      names[i] = columns[i].name;
+    }
+    this.columnIndex = ColumnIndex.create(names);
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  public List<String> getColumnNames() {
+    List<String> names = Lists.newArrayList();
+    for (Column c : columns) {
+      names.add(c.name);
+    }
+    return names;
+  }
+
+  public boolean hasColumn(String name) {
+    return columnIndex.get(name) != ColumnIndex.NOT_FOUND;
+  }
+
+  /**
+   * Returns the column at the given 0-based position.
+   */
+  public Column column(int i) {
+    Preconditions.checkElementIndex(i, columns.length);
+    return columns[i];
+  }
+
+  public Column column(String name) {
+    int i = columnIndex.get(name);
+    Preconditions.checkArgument(i != ColumnIndex.NOT_FOUND, "no such column: %s", name);
+    return columns[i - 1];
+  }
+
+  public DoubleColumn doubleColumn(String name) {
+    return as(column(name), DoubleColumn.class);
+  }
+
+  public LongColumn longColumn(String name) {
+    return as(column(name), LongColumn.class);
+  }
+
+  public TimestampColumn timestampColumn(String name) {
+    return as(column(name), TimestampColumn.class);
+  }
+
+  public StringColumn stringColumn(String name) {
+    return as(column(name), StringColumn.class);
+  }
+
+  /**
+   * Values of a numeric column as doubles, with NaN for null. Integer columns are converted.
+   */
+  public double[] getDoubles(String name) {
+    Column c = column(name);
+    if (c instanceof DoubleColumn dc) {
+      return dc.values;
+    }
+    if (c instanceof LongColumn lc && !(c instanceof TimestampColumn)) {
+      double[] d = new double[rowCount];
+      for (int i = 0; i < rowCount; i++) {
+        d[i] = lc.nulls.get(i) ? Double.NaN : lc.values[i];
+      }
+      return d;
+    }
+    throw new IllegalArgumentException("not a numeric column: " + c);
+  }
+
+  public long[] getLongs(String name) {
+    return longColumn(name).values;
+  }
+
+  public long[] getEpochMillis(String name) {
+    return timestampColumn(name).values;
+  }
+
+  private static <C extends Column> C as(Column c, Class<C> type) {
+    Preconditions.checkArgument(type.isInstance(c), "%s is not a %s", c, type.getSimpleName());
+    return type.cast(c);
+  }
+
+  public String toString() {
+    return String.format("Frame{rows=%d, columns=%s}", rowCount, getColumnNames());
+  }
+
+  /**
+   * How a column is stored, by java.sql.Types code.
+   */
+  enum Kind {
+    DOUBLE,
+    LONG,
+    TIMESTAMP,
+    STRING;
+
+    static Kind of(int sqlType) {
+      switch (sqlType) {
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+          return DOUBLE;
+        case Types.BIGINT:
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+        case Types.BOOLEAN:
+        case Types.BIT:
+          return LONG;
+        case Types.DATE:
+        case Types.TIMESTAMP:
+        case Types.TIMESTAMP_WITH_TIMEZONE:
+          return TIMESTAMP;
+        default:
+          return STRING;
+      }
+    }
+  }
+
+  static long readLong(ResultSet rs, int col, int sqlType) throws SQLException {
+    if (sqlType == Types.BOOLEAN || sqlType == Types.BIT) {
+      return rs.getBoolean(col) ? 1 : 0;
+    }
+    return rs.getLong(col);
+  }
+
+  /**
+   * Reads a date or timestamp as an Instant, or null. Dates are the start of the day in the
+   * session zone.
+   */
+  static Instant readInstant(Results r, int col) throws SQLException {
+    return r.temporalReaders().instant(col);
+  }
+
+  static int grow(int capacity) {
+    return Math.max(MIN_CAPACITY, capacity + (capacity >> 1));
+  }
+
+  public abstract static class Column {
+    final String name;
+    final int sqlType;
+    BitSet nulls = new BitSet();
+
+    Column(String name, int sqlType) {
+      this.name = name;
+      this.sqlType = sqlType;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The java.sql.Types code reported by the driver.
+     */
+    public int getSqlType() {
+      return sqlType;
+    }
+
+    public boolean isNull(int row) {
+      return nulls.get(row);
+    }
+
+    public int getNullCount() {
+      return nulls.cardinality();
+    }
+
+    /**
+     * Boxed value at the given row, or null. Meant for debugging and tests, not for hot loops.
+     */
+    public abstract Object get(int row);
+
+    abstract void read(Results r, int col, int row) throws SQLException;
+
+    abstract void trim(int rowCount);
+
+    public String toString() {
+      return String.format("%s{%s}", getClass().getSimpleName(), name);
+    }
+  }
+
+  public static class DoubleColumn extends Column {
+    double[] values;
+
+    DoubleColumn(String name, int sqlType, int capacity) {
+      super(name, sqlType);
+      this.values = new double[capacity];
+    }
+
+    /**
+     * Backing array, one element per row, with NaN for null.
+     */
+    public double[] getValues() {
+      return values;
+    }
+
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    public Object get(int row) {
+      return nulls.get(row) ? null : values[row];
+    }
+
+    @Override
+    void read(Results r, int col, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length));
+      }
+      ResultSet rs = r.getResultSet();
+      double v = rs.getDouble(col);
+      if (rs.wasNull()) {
+        nulls.set(row);
+        v = Double.NaN;
+      }
+      values[row] = v;
+    }
+
+    @Override
+    void trim(int rowCount) {
+      if (values.length != rowCount) {
+        values = Arrays.copyOf(values, rowCount);
+      }
+    }
+  }
+
+  public static class LongColumn extends Column {
+    long[] values;
+
+    LongColumn(String name, int sqlType, int capacity) {
+      super(name, sqlType);
+      this.values = new long[capacity];
+    }
+
+    /**
+     * Backing array, one element per row, with 0 for null.
+     */
+    public long[] getValues() {
+      return values;
+    }
+
+    public long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    public Object get(int row) {
+      return nulls.get(row) ? null : values[row];
+    }
+
+    @Override
+    void read(Results r, int col, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length));
+      }
+      ResultSet rs = r.getResultSet();
+      long v = readLong(rs, col, sqlType);
+      if (rs.wasNull()) {
+        nulls.set(row);
+        v = 0;
+      }
+      values[row] = v;
+    }
+
+    @Override
+    void trim(int rowCount) {
+      if (values.length != rowCount) {
+        values = Arrays.copyOf(values, rowCount);
+      }
+    }
+  }
+
+  /**
+   * Dates and timestamps as epoch millis. Dates are the start of the day in the session zone.
+   */
+  public static class TimestampColumn extends LongColumn {
+
+    TimestampColumn(String name, int sqlType, int capacity) {
+      super(name, sqlType, capacity);
+    }
+
+    public Instant getInstant(int row) {
+      return nulls.get(row) ? null : Instant.ofEpochMilli(values[row]);
+    }
+
+    @Override
+    public Object get(int row) {
+      return getInstant(row);
+    }
+
+    @Override
+    void read(Results r, int col, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, grow(values.length));
+      }
+      Instant t = readInstant(r, col);
+      if (t == null) {
+        nulls.set(row);
+        values[row] = 0;
+      } else {
+        values[row] = t.toEpochMilli();
+      }
+    }
+  }
+
+  /**
+   * Strings stored as int codes into a dictionary of distinct values, which keeps low-cardinality
+   * columns such as tickers or exchanges small.
+   */
+  public static class StringColumn extends Column {
+    int[] codes;
+    List<String> dictionary = Lists.newArrayList();
+    Map<String, Integer> codesByValue = new HashMap<>();
+
+    StringColumn(String name, int sqlType, int capacity) {
+      super(name, sqlType);
+      this.codes = new int[capacity];
+    }
+
+    /**
+     * Dictionary code per row, or -1 for null.
+     */
+    public int[] getCodes() {
+      return codes;
+    }
+
+    /**
+     * Distinct values, in order of first appearance, indexed by code.
+     */
+    public List<String> getDictionary() {
+      return dictionary;
+    }
+
+    public String getString(int row) {
+      int code = codes[row];
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    @Override
+    public Object get(int row) {
+      return getString(row);
+    }
+
+    @Override
+    void read(Results r, int col, int row) throws SQLException {
+      if (row == codes.length) {
+        codes = Arrays.copyOf(codes, grow(codes.length));
+      }
+      String s = r.getResultSet().getString(col);
+      if (s == null) {
+        nulls.set(row);
+        codes[row] = -1;
+        return;
+      }
+      Integer code = codesByValue.get(s);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add(s);
+        codesByValue.put(s, code);
+      }
+      codes[row] = code;
+    }
+
+    @Override
+    void trim(int rowCount) {
+      if (codes.length != rowCount) {
+        codes = Arrays.copyOf(codes, rowCount);
+      }
+      dictionary = ImmutableList.copyOf(dictionary);
+      codesByValue = null;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package bq.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * ResultSetProcessor that reads a whole result set into a columnar Frame:
+ *
+ * <pre>
+ * Frame f = template.queryResult(b -&gt; b.sql("select * from S_AAPL"), FrameReader.create());
+ * double[] close = f.getDoubles("close");
+ * </pre>
+ *
+ * Column arrays start at initialCapacity, grow by half as rows arrive and are trimmed to the row
+ * count at the end.
+ */
+public class FrameReader implements ResultSetProcessor<Frame> {
+
+  public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+
+  FrameReader() {
+    super();
+  }
+
+  public static FrameReader create() {
+    return new FrameReader();
+  }
+
+  /**
+   * Expected number of rows. A good estimate avoids copying arrays as they grow.
+   */
+  public FrameReader initialCapacity(int rows) {
+    Preconditions.checkArgument(rows >= 0, "initialCapacity must be >= 0");
+    this.initialCapacity = rows;
+    return this;
+  }
+
+  public Frame read(Results r) throws SQLException {
+    ResultSet rs = r.getResultSet();
+    ResultSetMetaData md = rs.getMetaData();
+    Frame.Column[] columns = new Frame.Column[md.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = newColumn(md.getColumnLabel(i + 1), md.getColumnType(i + 1), initialCapacity);
+    }
+
+    int row = 0;
+    while (r.next()) {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].read(r, i + 1, row);
+      }
+      row++;
+    }
+    for (Frame.Column c : columns) {
+      c.trim(row);
+    }
+    return new Frame(columns, row);
+  }
+
+  static Frame.Column newColumn(String name, int sqlType, int capacity) {
+    switch (Frame.Kind.of(sqlType)) {
+      case DOUBLE:
+        return new Frame.DoubleColumn(name, sqlType, capacity);
+      case LONG:
+        return new Frame.LongColumn(name, sqlType, capacity);
+      case TIMESTAMP:
+        return new Frame.TimestampColumn(name, sqlType, capacity);
+      default:
+        return new Frame.StringColumn(name, sqlType, capacity);
+    }
+  }
+
+  @Override
+  public Frame process(Results rs) throws SQLException {
+    return read(rs);
+  }
+}
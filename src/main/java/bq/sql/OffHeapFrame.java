@@ -0,0 +1,402 @@
+package bq.sql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Columnar copy of a result set whose values live outside the Java heap, in direct ByteBuffers.
+ * Build one with OffHeapFrameReader and close it when done:
+ *
+ * <pre>
+ * try (OffHeapFrame f = template.queryResult(b -&gt; ..., OffHeapFrameReader.create())) {
+ *   OffHeapFrame.Column close = f.column("close");
+ *   for (int i = 0; i &lt; f.getRowCount(); i++) { close.getDouble(i); }
+ * }
+ * </pre>
+ *
+ * Columns are stored in fixed-size chunks, so growth never copies and a column is not limited to
+ * 2GB. Values use the same layout as Frame: 8 bytes per row for numbers and epoch millis, and a
+ * 4-byte dictionary code per row for strings. The null bitmaps and string dictionaries stay on the
+ * heap. Memory is freed on close() rather than when the buffers are collected.
+ *
+ * A frame may be read from several threads. Each read of a value holds a column's read lock, and
+ * close() frees a column's buffers under its write lock, so close() waits for reads in progress
+ * and later reads throw IllegalStateException instead of touching freed memory. Java 21 has no
+ * supported way to free a direct buffer, so this uses Unsafe.invokeCleaner() and falls back to
+ * GC if that is unavailable; Arena.ofShared() will replace both once Java 22 is the baseline.
+ */
+public class OffHeapFrame implements AutoCloseable {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final int CHUNK_SHIFT = 16;
+  static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+  static final AtomicLong totalAllocatedBytes = new AtomicLong();
+
+  static Supplier<MethodHandle> invokeCleaner = Suppliers.memoize(OffHeapFrame::resolveCleaner);
+
+  Column[] columns;
+  ColumnIndex columnIndex;
+  int rowCount;
+  volatile boolean closed = false;
+
+  OffHeapFrame(Column[] columns, int rowCount) {
+    this.columns = columns;
+    this.rowCount = rowCount;
+    String[] names = new String[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      names[i] = columns[i].name;
+    }
+    this.columnIndex = ColumnIndex.create(names);
+  }
+
+  /**
+   * Off-heap bytes currently held by all open frames in this process.
+   */
+  public static long getTotalAllocatedBytes() {
+    return totalAllocatedBytes.get();
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  public List<String> getColumnNames() {
+    List<String> names = Lists.newArrayList();
+    for (Column c : columns) {
+      names.add(c.name);
+    }
+    return names;
+  }
+
+  /**
+   * Off-heap bytes held by this frame.
+   */
+  public long getAllocatedBytes() {
+    long bytes = 0;
+    for (Column c : columns) {
+      bytes += c.allocatedBytes;
+    }
+    return bytes;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the column at the given 0-based position.
+   */
+  public Column column(int i) {
+    Preconditions.checkState(!closed, "frame is closed");
+    Preconditions.checkElementIndex(i, columns.length);
+    return columns[i];
+  }
+
+  public Column column(String name) {
+    Preconditions.checkState(!closed, "frame is closed");
+    int i = columnIndex.get(name);
+    Preconditions.checkArgument(i != ColumnIndex.NOT_FOUND, "no such column: %s", name);
+    return columns[i - 1];
+  }
+
+  public double getDouble(int row, int col) {
+    return column(col).getDouble(row);
+  }
+
+  public long getLong(int row, int col) {
+    return column(col).getLong(row);
+  }
+
+  public String getString(int row, int col) {
+    return column(col).getString(row);
+  }
+
+  public boolean isNull(int row, int col) {
+    return column(col).isNull(row);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Column c : columns) {
+      c.free();
+    }
+  }
+
+  public String toString() {
+    return String.format(
+        "OffHeapFrame{rows=%d, columns=%s, bytes=%d%s}",
+        rowCount, getColumnNames(), getAllocatedBytes(), closed ? ", closed" : "");
+  }
+
+  static MethodHandle resolveCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field f = unsafeClass.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      Object unsafe = f.get(null);
+      return MethodHandles.lookup()
+          .findVirtual(
+              unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+          .bindTo(unsafe);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "cannot free direct buffers explicitly; they will be freed by GC");
+      return null;
+    }
+  }
+
+  static ByteBuffer allocate(int bytes) {
+    ByteBuffer b = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    totalAllocatedBytes.addAndGet(bytes);
+    return b;
+  }
+
+  /**
+   * Frees the buffer's memory now. The caller must make sure that nothing reads it afterwards.
+   */
+  static void free(ByteBuffer b) {
+    totalAllocatedBytes.addAndGet(-b.capacity());
+    MethodHandle cleaner = invokeCleaner.get();
+    if (cleaner == null) {
+      return;
+    }
+    try {
+      cleaner.invokeExact(b);
+    } catch (Throwable e) {
+      logger.atFine().withCause(e).log("problem freeing direct buffer");
+    }
+  }
+
+  /**
+   * One column of the frame. Getters take a 0-based row. Null rows read as NaN, 0 or null,
+   * depending on the type; use isNull() to tell them apart from real values.
+   */
+  public static class Column {
+    final String name;
+    final int sqlType;
+    final Frame.Kind kind;
+    final int width;
+    final StampedLock lock = new StampedLock();
+    List<ByteBuffer> chunks = Lists.newArrayList();
+    long allocatedBytes;
+    BitSet nulls = new BitSet();
+    List<String> dictionary;
+    Map<String, Integer> codesByValue;
+    volatile boolean closed = false;
+
+    Column(String name, int sqlType) {
+      this.name = name;
+      this.sqlType = sqlType;
+      this.kind = Frame.Kind.of(sqlType);
+      this.width = kind == Frame.Kind.STRING ? Integer.BYTES : Long.BYTES;
+      if (kind == Frame.Kind.STRING) {
+        dictionary = Lists.newArrayList();
+        codesByValue = new HashMap<>();
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The java.sql.Types code reported by the driver.
+     */
+    public int getSqlType() {
+      return sqlType;
+    }
+
+    public boolean isNull(int row) {
+      return nulls.get(row);
+    }
+
+    public double getDouble(int row) {
+      if (kind != Frame.Kind.DOUBLE && kind != Frame.Kind.LONG) {
+        throw new IllegalStateException(this + " is not numeric");
+      }
+      long stamp = lock.readLock();
+      try {
+        ByteBuffer b = chunk(row);
+        int offset = (row & CHUNK_MASK) * width;
+        if (kind == Frame.Kind.DOUBLE) {
+          return b.getDouble(offset);
+        }
+        return nulls.get(row) ? Double.NaN : b.getLong(offset);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    public long getLong(int row) {
+      Preconditions.checkState(
+          kind == Frame.Kind.LONG || kind == Frame.Kind.TIMESTAMP, "%s is not integral", this);
+      return readLong(row);
+    }
+
+    public long getEpochMillis(int row) {
+      Preconditions.checkState(kind == Frame.Kind.TIMESTAMP, "%s is not a timestamp", this);
+      return readLong(row);
+    }
+
+    private long readLong(int row) {
+      long stamp = lock.readLock();
+      try {
+        return chunk(row).getLong((row & CHUNK_MASK) * width);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    public Instant getInstant(int row) {
+      return isNull(row) ? null : Instant.ofEpochMilli(getEpochMillis(row));
+    }
+
+    public int getCode(int row) {
+      Preconditions.checkState(kind == Frame.Kind.STRING, "%s is not a string", this);
+      long stamp = lock.readLock();
+      try {
+        return chunk(row).getInt((row & CHUNK_MASK) * width);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    public String getString(int row) {
+      if (kind != Frame.Kind.STRING) {
+        Object v = get(row);
+        return v == null ? null : v.toString();
+      }
+      int code = getCode(row);
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    /**
+     * Distinct values of a string column, indexed by code.
+     */
+    public List<String> getDictionary() {
+      return dictionary;
+    }
+
+    /**
+     * Boxed value at the given row, or null. Meant for debugging and tests, not for hot loops.
+     */
+    public Object get(int row) {
+      if (isNull(row)) {
+        return null;
+      }
+      switch (kind) {
+        case DOUBLE:
+          return getDouble(row);
+        case LONG:
+          return getLong(row);
+        case TIMESTAMP:
+          return getInstant(row);
+        default:
+          return getString(row);
+      }
+    }
+
+    /**
+     * The chunk holding the row. Callers hold the read lock, so the chunk stays allocated until
+     * they release it.
+     */
+    private ByteBuffer chunk(int row) {
+      if (closed) {
+        throw new IllegalStateException("frame is closed");
+      }
+      return chunks.get(row >>> CHUNK_SHIFT);
+    }
+
+    /**
+     * Returns the chunk that the row is written to, allocating it on the first row of a chunk.
+     */
+    ByteBuffer chunkForWrite(int row) {
+      int i = row >>> CHUNK_SHIFT;
+      if (i == chunks.size()) {
+        chunks.add(allocate(CHUNK_ROWS * width));
+        allocatedBytes += (long) CHUNK_ROWS * width;
+      }
+      return chunks.get(i);
+    }
+
+    void setDouble(int row, double v) {
+      chunkForWrite(row).putDouble((row & CHUNK_MASK) * width, v);
+    }
+
+    void setLong(int row, long v) {
+      chunkForWrite(row).putLong((row & CHUNK_MASK) * width, v);
+    }
+
+    void setString(int row, String s) {
+      int code = -1;
+      if (s != null) {
+        Integer c = codesByValue.get(s);
+        if (c == null) {
+          c = dictionary.size();
+          dictionary.add(s);
+          codesByValue.put(s, c);
+        }
+        code = c;
+      }
+      chunkForWrite(row).putInt((row & CHUNK_MASK) * width, code);
+    }
+
+    void finish() {
+      if (kind == Frame.Kind.STRING) {
+        dictionary = ImmutableList.copyOf(dictionary);
+        codesByValue = null;
+      }
+    }
+
+    /**
+     * Frees the buffers once reads in progress have finished.
+     */
+    void free() {
+      long stamp = lock.writeLock();
+      try {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        chunks.forEach(OffHeapFrame::free);
+        chunks.clear();
+        allocatedBytes = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    public String toString() {
+      return String.format("Column{%s %s}", name, kind);
+    }
+  }
+}
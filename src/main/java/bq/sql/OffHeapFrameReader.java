@@ -0,0 +1,91 @@
+package bq.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Instant;
+
+/**
+ * ResultSetProcessor that reads a whole result set into an OffHeapFrame. The caller owns the frame
+ * and must close it. If reading fails, whatever was allocated is freed before the error
+ * propagates.
+ */
+public class OffHeapFrameReader implements ResultSetProcessor<OffHeapFrame> {
+
+  OffHeapFrameReader() {
+    super();
+  }
+
+  public static OffHeapFrameReader create() {
+    return new OffHeapFrameReader();
+  }
+
+  public OffHeapFrame read(Results r) throws SQLException {
+    ResultSet rs = r.getResultSet();
+    ResultSetMetaData md = rs.getMetaData();
+    OffHeapFrame.Column[] columns = new OffHeapFrame.Column[md.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new OffHeapFrame.Column(md.getColumnLabel(i + 1), md.getColumnType(i + 1));
+    }
+    OffHeapFrame frame = new OffHeapFrame(columns, 0);
+    try {
+      int row = 0;
+      while (r.next()) {
+        for (int i = 0; i < columns.length; i++) {
+          read(r, columns[i], i + 1, row);
+        }
+        row++;
+      }
+      for (OffHeapFrame.Column c : columns) {
+        c.finish();
+      }
+      frame.rowCount = row;
+      return frame;
+    } catch (SQLException | RuntimeException | Error e) {
+      frame.close();
+      throw e;
+    }
+  }
+
+  static void read(Results r, OffHeapFrame.Column c, int col, int row) throws SQLException {
+    ResultSet rs = r.getResultSet();
+    switch (c.kind) {
+      case DOUBLE:
+        double d = rs.getDouble(col);
+        if (rs.wasNull()) {
+          c.nulls.set(row);
+          d = Double.NaN;
+        }
+        c.setDouble(row, d);
+        break;
+      case LONG:
+        long v = Frame.readLong(rs, col, c.sqlType);
+        if (rs.wasNull()) {
+          c.nulls.set(row);
+          v = 0;
+        }
+        c.setLong(row, v);
+        break;
+      case TIMESTAMP:
+        Instant t = Frame.readInstant(r, col);
+        if (t == null) {
+          c.nulls.set(row);
+          c.setLong(row, 0);
+        } else {
+          c.setLong(row, t.toEpochMilli());
+        }
+        break;
+      default:
+        String s = rs.getString(col);
+        if (s == null) {
+          c.nulls.set(row);
+        }
+        c.setString(row, s);
+    }
+  }
+
+  @Override
+  public OffHeapFrame process(Results rs) throws SQLException {
+    return read(rs);
+  }
+}
@@ -0,0 +1,101 @@
+package bq.sql;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable result of parsing a {{param}} template. Instances are cached process-wide, keyed by
+ * the raw template text, so that constant SQL strings are only ever lexed once.
+ */
+public class ParsedSql {
+
+  static final int MAX_CACHE_SIZE = 2048;
+
+  static final Cache<String, ParsedSql> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE).recordStats().build();
+
+  final String template;
+  final ImmutableList<String> fragments;
+  final ImmutableList<String> paramNames;
+  final String sql;
+  final BindPlan bindPlan;
+
+  private ParsedSql(String template, SqlLexer lexer) {
+    this.template = template;
+    this.fragments = ImmutableList.copyOf(lexer.getFragments());
+    this.paramNames = ImmutableList.copyOf(lexer.getParamNames());
+
+    List<String> parts = Lists.newArrayListWithCapacity(fragments.size() + paramNames.size());
+    appendTo(parts);
+    this.sql = StatementBuilder.render(parts);
+    this.bindPlan = new BindPlan(paramNames.size());
+  }
+
+  public static ParsedSql parse(String template) {
+    String key = template == null ? "" : template;
+    try {
+      return cache.get(key, () -> new ParsedSql(key, SqlLexer.lex(key)));
+    } catch (ExecutionException e) {
+      throw new DbException(e.getCause());
+    }
+  }
+
+  public static CacheStats getCacheStats() {
+    return cache.stats();
+  }
+
+  public static long getCacheSize() {
+    return cache.size();
+  }
+
+  public static void clearCache() {
+    cache.invalidateAll();
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Text surrounding the parameters. There is always one more fragment than there are parameters.
+   */
+  public List<String> getFragments() {
+    return fragments;
+  }
+
+  public List<String> getParamNames() {
+    return paramNames;
+  }
+
+  public int getParamCount() {
+    return paramNames.size();
+  }
+
+  /**
+   * JDBC SQL for this template on its own, with each parameter replaced by ?
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * Appends the fragments to the given list with a ? between each one.
+   */
+  void appendTo(List<String> parts) {
+    for (int i = 0; i < paramNames.size(); i++) {
+      parts.add(fragments.get(i));
+      parts.add("?");
+    }
+    parts.add(fragments.getLast());
+  }
+
+  public String toString() {
+    return template;
+  }
+}
@@ -0,0 +1,28 @@
+package bq.sql;
+
+import java.util.List;
+
+/**
+ * Identifies the result of a query() call: the statement key, the bind values and the mapper.
+ * Mappers are compared by identity.
+ */
+record QueryKey(String statementKey, List<Object> binds, Object mapper) {
+
+  static QueryKey of(StatementBuilder b, RowMapper<?> mapper) {
+    return new QueryKey(b.getStatementKey(), b.getBindValues(), mapper);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof QueryKey k
+        && statementKey.equals(k.statementKey)
+        && binds.equals(k.binds)
+        && mapper == k.mapper;
+  }
+
+  @Override
+  public int hashCode() {
+    return (statementKey.hashCode() * 31 + binds.hashCode()) * 31
+        + System.identityHashCode(mapper);
+  }
+}
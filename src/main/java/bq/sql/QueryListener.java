@@ -0,0 +1,36 @@
+package bq.sql;
+
+/**
+ * Receives timings for the statements that a SqlTemplate runs. Statements are identified by their
+ * fingerprint, the {{param}} template text, so that executions with different bind values are
+ * grouped together.
+ *
+ * Listeners are called on the thread that runs the statement and should return quickly.
+ *
+ * @see SqlTemplate#withQueryListener(QueryListener)
+ * @see QueryMetrics
+ */
+public interface QueryListener {
+
+  enum Phase {
+    /** Obtaining a connection from the supplier, or the one bound to the thread. */
+    ACQUIRE,
+    /** Preparing, or checking out of the StatementCache, and binding. */
+    PREPARE,
+    /** Running the statement up to the first result. */
+    EXECUTE,
+    /** Reading and mapping rows. For streams, this includes time spent by the consumer. */
+    FETCH,
+    /** Releasing the result set, statement and connection. */
+    CLOSE
+  }
+
+  /** Called when a phase of a statement ends. */
+  void onPhase(String fingerprint, Phase phase, long nanos);
+
+  /**
+   * Called once per statement after its last phase, with the total time, whether it failed and the
+   * rows read or updated. rows is 0 where the count is unknown, as for execute() and queryResult().
+   */
+  void onQuery(String fingerprint, long nanos, long rows, boolean failed);
+}
@@ -0,0 +1,193 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * In-process QueryListener that keeps counters and latency histograms per statement fingerprint.
+ *
+ * Histograms have fixed log-linear buckets: exact below 16ns, then 8 buckets per power of two, so
+ * a reported percentile is at most 12.5% above the true value. Recording is lock-free, and
+ * snapshots can be taken at any time without stopping writers.
+ */
+public class QueryMetrics implements QueryListener {
+
+  public static final int DEFAULT_MAX_FINGERPRINTS = 512;
+
+  /** Latency distribution of one phase, or of whole statements. */
+  public record Latency(long count, Duration mean, Duration p50, Duration p99, Duration max) {}
+
+  public record Snapshot(
+      String fingerprint,
+      long count,
+      long failures,
+      long rows,
+      Latency total,
+      Map<Phase, Latency> phases) {}
+
+  ConcurrentMap<String, StatementMetrics> statements;
+
+  private QueryMetrics() {}
+
+  public static QueryMetrics create() {
+    return create(DEFAULT_MAX_FINGERPRINTS);
+  }
+
+  /**
+   * Tracks at most maxFingerprints statements, evicting the least recently used beyond that, so
+   * that ad-hoc SQL cannot grow the metrics without bound.
+   */
+  public static QueryMetrics create(int maxFingerprints) {
+    Preconditions.checkArgument(maxFingerprints > 0, "maxFingerprints must be > 0");
+    QueryMetrics m = new QueryMetrics();
+    m.statements =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxFingerprints)
+            .<String, StatementMetrics>build()
+            .asMap();
+    return m;
+  }
+
+  @Override
+  public void onPhase(String fingerprint, Phase phase, long nanos) {
+    metrics(fingerprint).phases[phase.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void onQuery(String fingerprint, long nanos, long rows, boolean failed) {
+    StatementMetrics m = metrics(fingerprint);
+    m.total.record(nanos);
+    m.rows.add(rows);
+    if (failed) {
+      m.failures.increment();
+    }
+  }
+
+  private StatementMetrics metrics(String fingerprint) {
+    StatementMetrics m = statements.get(fingerprint);
+    if (m == null) {
+      m = statements.computeIfAbsent(fingerprint, k -> new StatementMetrics());
+    }
+    return m;
+  }
+
+  public Optional<Snapshot> getSnapshot(String fingerprint) {
+    StatementMetrics m = statements.get(fingerprint);
+    return m == null ? Optional.empty() : Optional.of(m.snapshot(fingerprint));
+  }
+
+  /**
+   * Snapshots of every tracked statement, keyed by fingerprint.
+   */
+  public Map<String, Snapshot> getSnapshots() {
+    Map<String, Snapshot> snapshots = Maps.newLinkedHashMap();
+    statements.forEach((k, m) -> snapshots.put(k, m.snapshot(k)));
+    return snapshots;
+  }
+
+  public void clear() {
+    statements.clear();
+  }
+
+  static class StatementMetrics {
+    final Histogram total = new Histogram();
+    final Histogram[] phases = new Histogram[Phase.values().length];
+    final LongAdder failures = new LongAdder();
+    final LongAdder rows = new LongAdder();
+
+    StatementMetrics() {
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new Histogram();
+      }
+    }
+
+    Snapshot snapshot(String fingerprint) {
+      Map<Phase, Latency> phaseLatencies = new EnumMap<>(Phase.class);
+      for (Phase phase : Phase.values()) {
+        phaseLatencies.put(phase, phases[phase.ordinal()].snapshot());
+      }
+      Latency t = total.snapshot();
+      return new Snapshot(fingerprint, t.count(), failures.sum(), rows.sum(), t, phaseLatencies);
+    }
+  }
+
+  static class Histogram {
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    final LongAdder sum = new LongAdder();
+    final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+      long v = Math.max(nanos, 0);
+      buckets.incrementAndGet(index(v));
+      sum.add(v);
+      max.accumulate(v);
+    }
+
+    static int index(long nanos) {
+      if (nanos < LINEAR_LIMIT) {
+        return (int) nanos;
+      }
+      int exp = 63 - Long.numberOfLeadingZeros(nanos);
+      int sub = (int) (nanos >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return LINEAR_LIMIT + (exp - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Largest value that falls in the bucket. */
+    static long upperBound(int index) {
+      if (index < LINEAR_LIMIT) {
+        return index;
+      }
+      int exp = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+      int sub = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+      long next = (long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BUCKET_BITS);
+      return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    Latency snapshot() {
+      long[] counts = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        count += counts[i];
+      }
+      long maxNanos = max.get();
+      long mean = count == 0 ? 0 : sum.sum() / count;
+      return new Latency(
+          count,
+          Duration.ofNanos(mean),
+          Duration.ofNanos(percentile(counts, count, 0.50, maxNanos)),
+          Duration.ofNanos(percentile(counts, count, 0.99, maxNanos)),
+          Duration.ofNanos(maxNanos));
+    }
+
+    static long percentile(long[] counts, long count, double q, long maxNanos) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(upperBound(i), maxNanos);
+        }
+      }
+      return maxNanos;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package bq.sql;
+
+import bq.sql.QueryListener.Phase;
+import bq.sql.SqlEvents.PhaseEvent;
+
+/**
+ * Times the phases of one SqlTemplate call for a QueryListener and a SlowQueryLog, and emits
+ * SqlEvents while a JFR recording is running. SqlTemplate resolves these into Sinks whenever one
+ * of them changes, so a call makes a single volatile read and uses NOOP when there are none.
+ */
+final class QueryTimer {
+
+  /**
+   * Where a template's timings go, or null from resolve() when they go nowhere.
+   */
+  record Sinks(QueryListener listener, SlowQueryLog slowQueryLog, boolean jfr) {
+
+    static Sinks resolve(QueryListener listener, SlowQueryLog slowQueryLog, boolean jfr) {
+      if (listener == null && slowQueryLog == null && !jfr) {
+        return null;
+      }
+      return new Sinks(listener, slowQueryLog, jfr);
+    }
+  }
+
+  static final QueryTimer NOOP = new QueryTimer(null, null, false, null);
+
+  final QueryListener listener;
+  final SlowQueryLog slowQueryLog;
+  final boolean jfr;
+  final StatementBuilder builder;
+  final String fingerprint;
+  final int bindCount;
+  final long[] phaseNanos = new long[Phase.values().length];
+  long start;
+  long phaseStart;
+  Phase phase = Phase.ACQUIRE;
+  PhaseEvent event;
+  long rows = 0;
+  boolean succeeded = false;
+  boolean ended = false;
+
+  private QueryTimer(
+      QueryListener listener, SlowQueryLog slowQueryLog, boolean jfr, StatementBuilder b) {
+    this.listener = listener;
+    this.slowQueryLog = slowQueryLog;
+    this.jfr = jfr;
+    this.builder = b;
+    this.fingerprint = b == null ? null : b.getFingerprint();
+    this.bindCount = b == null ? 0 : b.paramNames.size();
+  }
+
+  /**
+   * Starts timing the ACQUIRE phase.
+   */
+  static QueryTimer start(Sinks sinks, StatementBuilder b) {
+    if (sinks == null) {
+      return NOOP;
+    }
+    boolean jfr = sinks.jfr();
+    QueryTimer timer = new QueryTimer(sinks.listener(), sinks.slowQueryLog(), jfr, b);
+    timer.start = System.nanoTime();
+    timer.phaseStart = timer.start;
+    if (jfr) {
+      timer.event = SqlEvents.begin(Phase.ACQUIRE);
+    }
+    return timer;
+  }
+
+  /**
+   * Ends the current phase and starts the next one.
+   */
+  void begin(Phase next) {
+    if (this == NOOP || ended) {
+      return;
+    }
+    long now = System.nanoTime();
+    phaseNanos[phase.ordinal()] += now - phaseStart;
+    if (listener != null) {
+      listener.onPhase(fingerprint, phase, now - phaseStart);
+    }
+    if (jfr) {
+      commit();
+      event = SqlEvents.begin(next);
+    }
+    phase = next;
+    phaseStart = now;
+  }
+
+  void row() {
+    if (this == NOOP) {
+      return;
+    }
+    rows++;
+  }
+
+  /**
+   * Marks the statement as successful, with the number of rows read or updated.
+   */
+  void succeeded(long rows) {
+    if (this == NOOP) {
+      return;
+    }
+    this.rows = rows;
+    this.succeeded = true;
+  }
+
+  /**
+   * Ends the current phase and the statement. Later calls do nothing.
+   */
+  void end() {
+    if (this == NOOP || ended) {
+      return;
+    }
+    long now = System.nanoTime();
+    ended = true;
+    phaseNanos[phase.ordinal()] += now - phaseStart;
+    if (jfr) {
+      commit();
+    }
+    if (listener != null) {
+      listener.onPhase(fingerprint, phase, now - phaseStart);
+      listener.onQuery(fingerprint, now - start, rows, !succeeded);
+    }
+    if (slowQueryLog != null) {
+      slowQueryLog.onQuery(builder, now - start, phaseNanos, rows, !succeeded);
+    }
+  }
+
+  private void commit() {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.fingerprint = fingerprint;
+      event.bindCount = bindCount;
+      event.rows = rows;
+      event.commit();
+    }
+    event = null;
+  }
+}
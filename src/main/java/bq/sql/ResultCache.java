@@ -0,0 +1,295 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Opt-in cache of query() results, keyed by the statement, its bind values and the mapper.
+ *
+ * Entries expire after a TTL and are evicted when the total number of cached rows exceeds the
+ * maximum weight. Concurrent callers of the same uncached query wait for a single load.
+ *
+ * Every table has a generation that execute() and executeUpdate() bump, via SqlTables, when they
+ * write to it; a statement whose targets are unknown bumps every table. An entry remembers the
+ * generations of the tables its template reads from, as they were before it was loaded, and is
+ * discarded when any of them has moved on. Writes inside inTransaction() bump again on commit or
+ * rollback, so that results read by other threads while the transaction was open are discarded
+ * too. Writes made by other processes, or through templates without this cache, are only picked up
+ * when entries expire.
+ *
+ * Tables are found by name, so reads through views and table functions need care. A CREATE VIEW run
+ * through a template with this cache records the view's source tables, and a write to a source
+ * also invalidates entries that read the view. Views created any other way, for example before the
+ * cache was attached or by another process, are not known, and writes to their sources will not
+ * invalidate entries read through them until those expire. Queries that read from a table
+ * function or table macro, such as read_parquet() or range(), may depend on anything and are never
+ * cached.
+ *
+ * Mappers are compared by identity. Lambdas that capture nothing and mappers from RowMappers are
+ * shared between calls, so their results are cached; a capturing lambda is a new mapper on each
+ * call and will not hit.
+ *
+ * @see SqlTemplate#withResultCache(ResultCache)
+ */
+public class ResultCache {
+
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 100_000;
+
+  static class Entry {
+    final List<?> rows;
+    final long allGeneration;
+    final String[] tables;
+    final long[] generations;
+
+    Entry(List<?> rows, long allGeneration, String[] tables, long[] generations) {
+      this.rows = rows;
+      this.allGeneration = allGeneration;
+      this.tables = tables;
+      this.generations = generations;
+    }
+  }
+
+  Cache<QueryKey, Entry> cache;
+
+  final Cache<String, Set<String>> readTables = CacheBuilder.newBuilder().maximumSize(1024).build();
+  final Cache<String, Set<String>> writtenTables =
+      CacheBuilder.newBuilder().maximumSize(1024).build();
+
+  final Cache<String, Optional<String>> createdViews =
+      CacheBuilder.newBuilder().maximumSize(1024).build();
+
+  final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<>();
+  final ConcurrentHashMap<String, Set<String>> viewSources = new ConcurrentHashMap<>();
+  final AtomicLong allGeneration = new AtomicLong();
+  final LongAdder invalidations = new LongAdder();
+  final LongAdder uncacheable = new LongAdder();
+
+  private ResultCache() {}
+
+  public static ResultCache create() {
+    return create(DEFAULT_TTL, DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  /**
+   * @param ttl how long an entry may be served after it was loaded
+   * @param maximumWeight most rows to hold across all entries; each entry also counts as one row
+   */
+  public static ResultCache create(Duration ttl, long maximumWeight) {
+    Preconditions.checkArgument(ttl != null && ttl.isPositive(), "ttl must be positive");
+    Preconditions.checkArgument(maximumWeight > 0, "maximumWeight must be > 0");
+    ResultCache c = new ResultCache();
+    c.cache =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumWeight(maximumWeight)
+            .<QueryKey, Entry>weigher((k, e) -> Ints.saturatedCast(e.rows.size() + 1L))
+            .recordStats()
+            .build();
+    return c;
+  }
+
+  /**
+   * Returns the cached rows for the statement, or loads and caches them. Cached lists are shared
+   * and unmodifiable. Statements that read from a table function are loaded every time.
+   */
+  @SuppressWarnings("unchecked")
+  <T> List<T> get(StatementBuilder b, RowMapper<T> mapper, Callable<List<T>> loader) {
+    Set<String> read = tables(readTables, b.getFingerprint(), false);
+    if (readsTableFunction(read)) {
+      uncacheable.increment();
+      try {
+        return loader.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new DbException(e);
+      }
+    }
+    QueryKey key = QueryKey.of(b, mapper);
+    String[] tables = read.toArray(String[]::new);
+    Entry[] loaded = new Entry[1];
+    while (true) {
+      Entry e;
+      try {
+        e = cache.get(key, () -> loaded[0] = load(tables, loader));
+      } catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+        if (ex.getCause() instanceof RuntimeException re) {
+          throw re;
+        }
+        if (ex.getCause() instanceof Error err) {
+          throw err;
+        }
+        throw new DbException(ex.getCause());
+      }
+      if (isCurrent(e)) {
+        return (List<T>) e.rows;
+      }
+      invalidations.increment();
+      cache.asMap().remove(key, e);
+      if (e == loaded[0]) {
+        // a write overlapped this load; the rows are as fresh as an uncached query's
+        return (List<T>) e.rows;
+      }
+    }
+  }
+
+  private boolean readsTableFunction(Set<String> tables) {
+    if (tables.contains(SqlTables.TABLE_FUNCTION)) {
+      return true;
+    }
+    for (String table : tables) {
+      Set<String> sources = viewSources.get(table);
+      if (sources != null && sources.contains(SqlTables.TABLE_FUNCTION)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Entry load(String[] tables, Callable<?> loader) throws Exception {
+    // generations are read before the query runs, so a write that overlaps it invalidates it
+    long all = allGeneration.get();
+    long[] gens = new long[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      gens[i] = generations.getOrDefault(tables[i], 0L);
+    }
+    List<?> rows = (List<?>) loader.call();
+    return new Entry(Collections.unmodifiableList(Lists.newArrayList(rows)), all, tables, gens);
+  }
+
+  private boolean isCurrent(Entry e) {
+    if (e.allGeneration != allGeneration.get()) {
+      return false;
+    }
+    for (int i = 0; i < e.tables.length; i++) {
+      if (e.generations[i] != generations.getOrDefault(e.tables[i], 0L)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Invalidates entries that read from the tables the statement writes to.
+   */
+  void onWrite(String fingerprint) {
+    String view = createdView(fingerprint);
+    if (view != null) {
+      recordView(view, tables(readTables, fingerprint, false));
+    }
+    Set<String> written = tables(writtenTables, fingerprint, true);
+    if (written.contains(SqlTables.ALL_TABLES)) {
+      allGeneration.incrementAndGet();
+      return;
+    }
+    Set<String> bumped = new HashSet<>();
+    for (String table : written) {
+      bump(table, bumped);
+    }
+  }
+
+  private String createdView(String fingerprint) {
+    try {
+      return createdViews
+          .get(fingerprint, () -> Optional.ofNullable(SqlTables.createdView(fingerprint)))
+          .orElse(null);
+    } catch (ExecutionException e) {
+      throw new DbException(e.getCause());
+    }
+  }
+
+  /**
+   * Remembers what the view reads. A view over a view over a table function is marked as reading
+   * a table function itself.
+   */
+  private void recordView(String view, Set<String> sources) {
+    Set<String> resolved = new HashSet<>(sources);
+    for (String source : sources) {
+      Set<String> nested = viewSources.get(source);
+      if (nested != null && nested.contains(SqlTables.TABLE_FUNCTION)) {
+        resolved.add(SqlTables.TABLE_FUNCTION);
+      }
+    }
+    viewSources.put(view, Set.copyOf(resolved));
+  }
+
+  /**
+   * Moves the table's generation on, and those of the known views that read from it.
+   */
+  private void bump(String table, Set<String> bumped) {
+    if (!bumped.add(table)) {
+      return;
+    }
+    generations.merge(table, 1L, Long::sum);
+    for (Map.Entry<String, Set<String>> view : viewSources.entrySet()) {
+      if (view.getValue().contains(table)) {
+        bump(view.getKey(), bumped);
+      }
+    }
+  }
+
+  private static Set<String> tables(Cache<String, Set<String>> cache, String sql, boolean write) {
+    try {
+      return cache.get(sql, () -> write ? SqlTables.writtenTables(sql) : SqlTables.readTables(sql));
+    } catch (ExecutionException e) {
+      throw new DbException(e.getCause());
+    }
+  }
+
+  /**
+   * Invalidates entries whose templates read from the table.
+   */
+  public void invalidate(String table) {
+    Preconditions.checkNotNull(table);
+    String name = table.substring(table.lastIndexOf('.') + 1).replace("\"", "");
+    bump(name.toLowerCase(Locale.ROOT), new HashSet<>());
+  }
+
+  public void invalidateAll() {
+    allGeneration.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * Hits, misses, load times and evictions. Entries found to be stale count as hits here and are
+   * reported by getInvalidationCount().
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /** Loads that bypassed the cache because the statement reads from a table function. */
+  public long getUncacheableCount() {
+    return uncacheable.sum();
+  }
+
+  /** Entries discarded because a table they read from was written. */
+  public long getInvalidationCount() {
+    return invalidations.sum();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+}
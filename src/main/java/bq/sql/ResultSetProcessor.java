@@ -5,6 +5,6 @@ import java.sql.SQLException;
 
 public interface ResultSetProcessor<T> {
 
-  public <T> T process(Results rs) throws SQLException;
+  public T process(Results rs) throws SQLException;
   
 }
@@ -21,6 +21,12 @@ import bq.util.Zones;
 public class Results {
 
   ResultSet rs;
+  ColumnIndex columnIndex;
+  Object mapperPlanOwner;
+  Object mapperPlan;
+  TemporalReaders temporalReaders;
+  AdaptiveFetchSize fetchSizer;
+  boolean onRow;
 
 
   public static Results create(ResultSet rs) {
@@ -42,73 +48,110 @@ public class Results {
       throw new DbException(e);
     }
   }
+  /**
+   * Advances to the next row. If the query asked for an adaptive fetch size, the row being left
+   * is measured first; processors that call ResultSet.next() directly skip that sampling.
+   */
   public boolean next() {
     try {
-      
-    return rs.next();
+      if (fetchSizer != null && onRow) {
+        fetchSizer.onRow();
+        if (!fetchSizer.isSampling()) {
+          fetchSizer = null;
+        }
+      }
+      onRow = rs.next();
+      return onRow;
     }
     catch (SQLException e) {
       throw new DbException(e);
     }
     
   }
-  public Optional<String> getString(int name) {
+  /**
+   * Resolves a column label to its 1-based index. Labels are matched case-insensitively against
+   * the ResultSetMetaData, which is read once per ResultSet.
+   */
+  public int findColumn(String name) {
     try {
-    return Optional.ofNullable( rs.getString(name));
-    }
-    catch (SQLException e) {
+      if (columnIndex == null) {
+        columnIndex = ColumnIndex.create(rs.getMetaData());
+      }
+      int col = columnIndex.get(name);
+      if (col != ColumnIndex.NOT_FOUND) {
+        return col;
+      }
+      // let the driver resolve anything we could not, or report it as missing
+      return rs.findColumn(name);
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  public Optional<String> getString(String name) {
+
+  /**
+   * Returns a handle for the named column. The label is resolved once, so a mapper can capture
+   * the handle on the first row and reuse it for the rest.
+   */
+  public Column column(String name) {
+    return new Column(name, findColumn(name));
+  }
+
+  public Optional<String> getString(int col) {
     try {
-    return Optional.ofNullable( rs.getString(name));
-    }
-    catch (SQLException e) {
+      return Optional.ofNullable(rs.getString(col));
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  
-  public Optional<BigDecimal> getBigDecimal(String name) {
-    
+
+  public Optional<String> getString(String name) {
+    return getString(findColumn(name));
+  }
+
+  public Optional<BigDecimal> getBigDecimal(int col) {
     try {
-      BigDecimal bd = rs.getBigDecimal(name);
-      if (bd==null) {
-        return Optional.empty();
-      }
-      return Optional.of(bd);
-    }
-    catch (SQLException e) {
+      return Optional.ofNullable(rs.getBigDecimal(col));
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  public Optional<Double> getDouble(String name) {
+
+  public Optional<BigDecimal> getBigDecimal(String name) {
+    return getBigDecimal(findColumn(name));
+  }
+
+  public Optional<Double> getDouble(int col) {
     try {
-      double d = rs.getDouble(name);
+      double d = rs.getDouble(col);
       if (rs.wasNull()) {
         return Optional.empty();
       }
       return Optional.of(d);
-    
-    }
-    catch (SQLException e) {
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  public Optional<Long> getLong(String name) {
+
+  public Optional<Double> getDouble(String name) {
+    return getDouble(findColumn(name));
+  }
+
+  public Optional<Long> getLong(int col) {
     try {
-      long d = rs.getLong(name);
+      long v = rs.getLong(col);
       if (rs.wasNull()) {
         return Optional.empty();
       }
-      return Optional.of(d);
-    
-    }
-    catch (SQLException e) {
+      return Optional.of(v);
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  
+
+  public Optional<Long> getLong(String name) {
+    return getLong(findColumn(name));
+  }
+
   public Optional<Integer> getInt(int col) {
     try {
       int v = rs.getInt(col);
@@ -116,40 +159,123 @@ public class Results {
         return Optional.empty();
       }
       return Optional.of(v);
-    
-    }
-    catch (SQLException e) {
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
+
   public Optional<Integer> getInt(String name) {
+    return getInt(findColumn(name));
+  }
+
+  public Optional<Boolean> getBoolean(int col) {
     try {
-      int v = rs.getInt(name);
+      boolean v = rs.getBoolean(col);
       if (rs.wasNull()) {
         return Optional.empty();
       }
       return Optional.of(v);
-    
-    }
-    catch (SQLException e) {
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
+
   public Optional<Boolean> getBoolean(String name) {
+    return getBoolean(findColumn(name));
+  }
+
+  /*
+   * Primitive accessors. These read the value without boxing it or wrapping it in an Optional,
+   * and substitute the given default for SQL NULL. Use them in mappers that read many rows.
+   */
+
+  /**
+   * True if the last value read was SQL NULL. Unlike isNull(), this does not read the column.
+   */
+  public boolean wasNull() {
     try {
-      boolean v = rs.getBoolean(name);
-      if (rs.wasNull()) {
-        return Optional.empty();
-      }
-      return Optional.of(v);
-    
+      return rs.wasNull();
+    } catch (SQLException e) {
+      throw new DbException(e);
     }
-    catch (SQLException e) {
+  }
+
+  /**
+   * True if the column is SQL NULL in the current row. Some drivers box the value to answer this,
+   * so in hot loops prefer reading with a primitive accessor and checking wasNull().
+   */
+  public boolean isNull(int col) {
+    try {
+      return rs.getObject(col) == null;
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  
-  
+
+  public boolean isNull(String name) {
+    return isNull(findColumn(name));
+  }
+
+  public double getDoubleOrNaN(int col) {
+    return getDoubleOr(col, Double.NaN);
+  }
+
+  public double getDoubleOrNaN(String name) {
+    return getDoubleOr(findColumn(name), Double.NaN);
+  }
+
+  public double getDoubleOr(int col, double defaultValue) {
+    try {
+      double v = rs.getDouble(col);
+      return rs.wasNull() ? defaultValue : v;
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  public double getDoubleOr(String name, double defaultValue) {
+    return getDoubleOr(findColumn(name), defaultValue);
+  }
+
+  public long getLongOr(int col, long defaultValue) {
+    try {
+      long v = rs.getLong(col);
+      return rs.wasNull() ? defaultValue : v;
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  public long getLongOr(String name, long defaultValue) {
+    return getLongOr(findColumn(name), defaultValue);
+  }
+
+  public int getIntOr(int col, int defaultValue) {
+    try {
+      int v = rs.getInt(col);
+      return rs.wasNull() ? defaultValue : v;
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  public int getIntOr(String name, int defaultValue) {
+    return getIntOr(findColumn(name), defaultValue);
+  }
+
+  public boolean getBooleanOr(int col, boolean defaultValue) {
+    try {
+      boolean v = rs.getBoolean(col);
+      return rs.wasNull() ? defaultValue : v;
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  public boolean getBooleanOr(String name, boolean defaultValue) {
+    return getBooleanOr(findColumn(name), defaultValue);
+  }
+
   public static Optional<LocalDate> toLocalDate(Object input, ZoneId zone) {
     if (input==null) {
       return Optional.empty();
@@ -272,50 +398,131 @@ public class Results {
     throw new BqException("unable to convert "+input.getClass()+" to ZonedDateTime");
   }
   
-  public Optional<LocalDate> getLocalDate(String name) {
+  TemporalReaders temporalReaders() throws SQLException {
+    if (temporalReaders == null) {
+      temporalReaders = new TemporalReaders(this);
+    }
+    return temporalReaders;
+  }
+
+  public Optional<LocalDate> getLocalDate(int col) {
     try {
-      Object x = rs.getObject(name);
-      
-      return toLocalDate(x,getSessionZone());
-      
+      return Optional.ofNullable(temporalReaders().localDate(col));
+    } catch (SQLException e) {
+      throw new DbException(e);
     }
-    catch (SQLException e) {
+  }
+
+  public Optional<LocalDate> getLocalDate(String name) {
+    return getLocalDate(findColumn(name));
+  }
+
+  public Optional<Instant> getInstant(int col) {
+    try {
+      return Optional.ofNullable(temporalReaders().instant(col));
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  
-  
+
   public Optional<Instant> getInstant(String name) {
+    return getInstant(findColumn(name));
+  }
 
+  public Optional<ZonedDateTime> getZonedDateTime(int col) {
     try {
-      
-      Object val = rs.getObject(name);
-      
-      return toInstant(val,getSessionZone());
-      
-    
-    }
-    catch (SQLException e) {
+      return Optional.ofNullable(temporalReaders().zonedDateTime(col));
+    } catch (SQLException e) {
       throw new DbException(e);
     }
   }
-  
+
   public Optional<ZonedDateTime> getZonedDateTime(String name) {
-    
-    
- try {
-      
-      Object val = rs.getObject(name);
-      
-      return toZonedDateTime(val,getSessionZone());
-      
-    
+    return getZonedDateTime(findColumn(name));
+  }
+
+  /**
+   * A column of the current ResultSet, resolved to its index. Each getter reads the current row.
+   */
+  public class Column {
+    final String name;
+    final int index;
+
+    Column(String name, int index) {
+      this.name = name;
+      this.index = index;
     }
-    catch (SQLException e) {
-      throw new DbException(e);
+
+    public String getName() {
+      return name;
     }
-  }
-  
 
-  
+    public int getIndex() {
+      return index;
+    }
+
+    public Optional<String> getString() {
+      return Results.this.getString(index);
+    }
+
+    public Optional<BigDecimal> getBigDecimal() {
+      return Results.this.getBigDecimal(index);
+    }
+
+    public Optional<Double> getDouble() {
+      return Results.this.getDouble(index);
+    }
+
+    public Optional<Long> getLong() {
+      return Results.this.getLong(index);
+    }
+
+    public Optional<Integer> getInt() {
+      return Results.this.getInt(index);
+    }
+
+    public Optional<Boolean> getBoolean() {
+      return Results.this.getBoolean(index);
+    }
+
+    public Optional<LocalDate> getLocalDate() {
+      return Results.this.getLocalDate(index);
+    }
+
+    public Optional<Instant> getInstant() {
+      return Results.this.getInstant(index);
+    }
+
+    public Optional<ZonedDateTime> getZonedDateTime() {
+      return Results.this.getZonedDateTime(index);
+    }
+
+    public boolean isNull() {
+      return Results.this.isNull(index);
+    }
+
+    public double getDoubleOrNaN() {
+      return Results.this.getDoubleOr(index, Double.NaN);
+    }
+
+    public double getDoubleOr(double defaultValue) {
+      return Results.this.getDoubleOr(index, defaultValue);
+    }
+
+    public long getLongOr(long defaultValue) {
+      return Results.this.getLongOr(index, defaultValue);
+    }
+
+    public int getIntOr(int defaultValue) {
+      return Results.this.getIntOr(index, defaultValue);
+    }
+
+    public boolean getBooleanOr(boolean defaultValue) {
+      return Results.this.getBooleanOr(index, defaultValue);
+    }
+
+    public String toString() {
+      return String.format("Column{%s=%d}", name, index);
+    }
+  }
 }
@@ -3,5 +3,5 @@ package bq.sql;
 import java.sql.SQLException;
 
 public interface RowMapper<T> {
-  public <T> T map(Results rs) throws SQLException;
+  public T map(Results rs) throws SQLException;
 }
@@ -0,0 +1,386 @@
+package bq.sql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+/**
+ * Builds RowMappers for records and JavaBeans, so callers don't have to write one by hand:
+ *
+ * <pre>
+ * record Bar(LocalDate date, double close, long volume) {}
+ * List&lt;Bar&gt; bars = template.query(b -&gt; b.sql("select * from S_AAPL"), RowMappers.of(Bar.class));
+ * </pre>
+ *
+ * Columns are matched to record components, setters or fields by name, ignoring case and
+ * underscores, so trade_date maps to tradeDate. Members with no matching column get their default
+ * value. Null in a primitive double is NaN; other primitives get 0 or false.
+ *
+ * Reflection runs once per (class, column layout). The result is a chain of MethodHandles bound to
+ * column indexes, which is cached. A row is then read with the same typed ResultSet calls a
+ * hand-written mapper would make.
+ */
+public class RowMappers {
+
+  static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  static Cache<Class<?>, RowMapper<?>> mappers = CacheBuilder.newBuilder().weakKeys().build();
+
+  static Cache<Layout, Plan> plans =
+      CacheBuilder.newBuilder().maximumSize(1024).recordStats().build();
+
+  static final Map<Class<?>, MethodHandle> readers = new HashMap<>();
+  static final MethodHandle READ_OBJECT;
+
+  static {
+    try {
+      READ_OBJECT =
+          lookup.findStatic(
+              RowMappers.class,
+              "readObject",
+              MethodType.methodType(Object.class, Results.class, int.class, Class.class));
+      reader(String.class, "readString");
+      reader(double.class, "readDouble");
+      reader(Double.class, "readDoubleBoxed");
+      reader(float.class, "readFloat");
+      reader(Float.class, "readFloatBoxed");
+      reader(long.class, "readLong");
+      reader(Long.class, "readLongBoxed");
+      reader(int.class, "readInt");
+      reader(Integer.class, "readIntBoxed");
+      reader(boolean.class, "readBoolean");
+      reader(Boolean.class, "readBooleanBoxed");
+      reader(BigDecimal.class, "readBigDecimal");
+      reader(LocalDate.class, "readLocalDate");
+      reader(LocalDateTime.class, "readLocalDateTime");
+      reader(Instant.class, "readInstant");
+      reader(ZonedDateTime.class, "readZonedDateTime");
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private RowMappers() {}
+
+  /**
+   * Returns the mapper for a record or a class with a no-arg constructor. Mappers are cached and
+   * thread-safe.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> RowMapper<T> of(Class<T> type) {
+    Preconditions.checkNotNull(type);
+    try {
+      return (RowMapper<T>) mappers.get(type, () -> new GeneratedMapper<>(type));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new DbException(e.getCause());
+    }
+  }
+
+  public static long getPlanCount() {
+    return plans.size();
+  }
+
+  static class GeneratedMapper<T> implements RowMapper<T> {
+    final Class<T> type;
+
+    GeneratedMapper(Class<T> type) {
+      Preconditions.checkArgument(
+          !type.isPrimitive() && !type.isInterface() && !Modifier.isAbstract(type.getModifiers()),
+          "cannot map rows to %s",
+          type);
+      this.type = type;
+    }
+
+    @Override
+    public T map(Results rs) throws SQLException {
+      // the plan is resolved on the first row and kept on the Results for the rest
+      Plan plan;
+      if (rs.mapperPlanOwner == this) {
+        plan = (Plan) rs.mapperPlan;
+      } else {
+        plan = plan(type, rs.getResultSet().getMetaData());
+        rs.mapperPlanOwner = this;
+        rs.mapperPlan = plan;
+      }
+      try {
+        return type.cast(plan.map(rs));
+      } catch (SQLException | RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new DbException(e);
+      }
+    }
+
+    public String toString() {
+      return String.format("RowMapper{%s}", type.getName());
+    }
+  }
+
+  /**
+   * The class plus the label and type of every column, in order.
+   */
+  record Layout(Class<?> type, List<String> labels, List<Integer> sqlTypes) {}
+
+  interface Plan {
+    Object map(Results rs) throws Throwable;
+  }
+
+  static Plan plan(Class<?> type, ResultSetMetaData md) throws SQLException {
+    List<String> labels = Lists.newArrayList();
+    List<Integer> sqlTypes = Lists.newArrayList();
+    for (int i = 1; i <= md.getColumnCount(); i++) {
+      labels.add(md.getColumnLabel(i));
+      sqlTypes.add(md.getColumnType(i));
+    }
+    Layout layout = new Layout(type, ImmutableList.copyOf(labels), ImmutableList.copyOf(sqlTypes));
+    try {
+      return plans.get(layout, () -> type.isRecord() ? recordPlan(layout) : beanPlan(layout));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new DbException("could not build row mapper for " + type.getName(), e.getCause());
+    }
+  }
+
+  static Plan recordPlan(Layout layout) throws ReflectiveOperationException {
+    Class<?> type = layout.type();
+    MethodHandles.Lookup l = lookupFor(type);
+    Map<String, Integer> columns = columnsByName(layout);
+
+    RecordComponent[] components = type.getRecordComponents();
+    Class<?>[] paramTypes = new Class<?>[components.length];
+    MethodHandle[] filters = new MethodHandle[components.length];
+    for (int i = 0; i < components.length; i++) {
+      Class<?> t = components[i].getType();
+      paramTypes[i] = t;
+      Integer col = columns.get(normalize(components[i].getName()));
+      filters[i] =
+          col != null
+              ? reader(t, col)
+              : MethodHandles.dropArguments(MethodHandles.zero(t), 0, Results.class);
+    }
+    MethodHandle ctor = l.findConstructor(type, MethodType.methodType(void.class, paramTypes));
+
+    // (Results, Results, ...) -> T, then collapse every argument onto the one Results
+    MethodHandle h = MethodHandles.filterArguments(ctor, 0, filters);
+    h =
+        MethodHandles.permuteArguments(
+            h, MethodType.methodType(type, Results.class), new int[components.length]);
+    MethodHandle mh = h.asType(MethodType.methodType(Object.class, Results.class));
+    return rs -> (Object) mh.invokeExact(rs);
+  }
+
+  static Plan beanPlan(Layout layout) throws ReflectiveOperationException {
+    Class<?> type = layout.type();
+    MethodHandles.Lookup l = lookupFor(type);
+    MethodHandle ctor =
+        l.findConstructor(type, MethodType.methodType(void.class))
+            .asType(MethodType.methodType(Object.class));
+
+    Map<String, Method> setters = new HashMap<>();
+    for (Method m : type.getMethods()) {
+      if (m.getName().startsWith("set")
+          && m.getName().length() > 3
+          && m.getParameterCount() == 1
+          && !Modifier.isStatic(m.getModifiers())) {
+        setters.putIfAbsent(normalize(m.getName().substring(3)), m);
+      }
+    }
+    Map<String, Field> fields = new HashMap<>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field f : c.getDeclaredFields()) {
+        int mod = f.getModifiers();
+        if (!Modifier.isStatic(mod) && !Modifier.isFinal(mod)) {
+          fields.putIfAbsent(normalize(f.getName()), f);
+        }
+      }
+    }
+
+    List<MethodHandle> assignments = Lists.newArrayList();
+    for (int i = 0; i < layout.labels().size(); i++) {
+      String name = normalize(layout.labels().get(i));
+      MethodHandle set = null;
+      if (setters.containsKey(name)) {
+        set = l.unreflect(setters.remove(name));
+      } else if (fields.containsKey(name)) {
+        Field f = fields.remove(name);
+        set = lookupFor(f.getDeclaringClass()).unreflectSetter(f);
+      }
+      if (set == null) {
+        continue;
+      }
+      Class<?> t = set.type().parameterType(1);
+      // (T, Results) -> void, falling back to getObject() for types without a reader
+      MethodHandle assign = MethodHandles.filterArguments(set, 1, reader(t, i + 1));
+      assignments.add(
+          assign.asType(MethodType.methodType(void.class, Object.class, Results.class)));
+    }
+    MethodHandle[] assign = assignments.toArray(new MethodHandle[0]);
+    return rs -> {
+      Object bean = (Object) ctor.invokeExact();
+      for (MethodHandle a : assign) {
+        a.invokeExact(bean, rs);
+      }
+      return bean;
+    };
+  }
+
+  static MethodHandles.Lookup lookupFor(Class<?> type) {
+    try {
+      return MethodHandles.privateLookupIn(type, lookup);
+    } catch (IllegalAccessException e) {
+      return MethodHandles.publicLookup();
+    }
+  }
+
+  static Map<String, Integer> columnsByName(Layout layout) {
+    Map<String, Integer> columns = new HashMap<>();
+    for (int i = 0; i < layout.labels().size(); i++) {
+      columns.putIfAbsent(normalize(layout.labels().get(i)), i + 1);
+    }
+    return columns;
+  }
+
+  static String normalize(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c != '_') {
+        sb.append(Character.toLowerCase(c));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a (Results) -> type handle that reads the given column.
+   */
+  static MethodHandle reader(Class<?> type, int col) {
+    MethodHandle r = readers.get(type);
+    if (r == null) {
+      // anything else is left to the driver
+      r =
+          MethodHandles.insertArguments(READ_OBJECT, 2, type)
+              .asType(MethodType.methodType(type, Results.class, int.class));
+    }
+    return MethodHandles.insertArguments(r, 1, col);
+  }
+
+  private static void reader(Class<?> type, String name) throws ReflectiveOperationException {
+    readers.put(
+        type,
+        lookup.findStatic(
+            RowMappers.class, name, MethodType.methodType(type, Results.class, int.class)));
+  }
+
+  static String readString(Results r, int col) throws SQLException {
+    return r.rs.getString(col);
+  }
+
+  static double readDouble(Results r, int col) throws SQLException {
+    double v = r.rs.getDouble(col);
+    return r.rs.wasNull() ? Double.NaN : v;
+  }
+
+  static Double readDoubleBoxed(Results r, int col) throws SQLException {
+    double v = r.rs.getDouble(col);
+    return r.rs.wasNull() ? null : v;
+  }
+
+  static float readFloat(Results r, int col) throws SQLException {
+    float v = r.rs.getFloat(col);
+    return r.rs.wasNull() ? Float.NaN : v;
+  }
+
+  static Float readFloatBoxed(Results r, int col) throws SQLException {
+    float v = r.rs.getFloat(col);
+    return r.rs.wasNull() ? null : v;
+  }
+
+  static long readLong(Results r, int col) throws SQLException {
+    return r.rs.getLong(col);
+  }
+
+  static Long readLongBoxed(Results r, int col) throws SQLException {
+    long v = r.rs.getLong(col);
+    return r.rs.wasNull() ? null : v;
+  }
+
+  static int readInt(Results r, int col) throws SQLException {
+    return r.rs.getInt(col);
+  }
+
+  static Integer readIntBoxed(Results r, int col) throws SQLException {
+    int v = r.rs.getInt(col);
+    return r.rs.wasNull() ? null : v;
+  }
+
+  static boolean readBoolean(Results r, int col) throws SQLException {
+    return r.rs.getBoolean(col);
+  }
+
+  static Boolean readBooleanBoxed(Results r, int col) throws SQLException {
+    boolean v = r.rs.getBoolean(col);
+    return r.rs.wasNull() ? null : v;
+  }
+
+  static BigDecimal readBigDecimal(Results r, int col) throws SQLException {
+    return r.rs.getBigDecimal(col);
+  }
+
+  static LocalDate readLocalDate(Results r, int col) throws SQLException {
+    return r.temporalReaders().localDate(col);
+  }
+
+  static LocalDateTime readLocalDateTime(Results r, int col) throws SQLException {
+    Object v = r.rs.getObject(col);
+    if (v == null || v instanceof LocalDateTime) {
+      return (LocalDateTime) v;
+    }
+    if (v instanceof java.sql.Timestamp ts) {
+      return ts.toLocalDateTime();
+    }
+    return r.rs.getObject(col, LocalDateTime.class);
+  }
+
+  static Instant readInstant(Results r, int col) throws SQLException {
+    return r.temporalReaders().instant(col);
+  }
+
+  static ZonedDateTime readZonedDateTime(Results r, int col) throws SQLException {
+    return r.temporalReaders().zonedDateTime(col);
+  }
+
+  static Object readObject(Results r, int col, Class<?> type) throws SQLException {
+    Object v = r.rs.getObject(col);
+    if (v == null || type.isInstance(v)) {
+      return v;
+    }
+    return r.rs.getObject(col, type);
+  }
+}
@@ -0,0 +1,153 @@
+package bq.sql;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import bq.util.Symbol;
+
+/**
+ * Runs the same query against the per-instrument table of each Symbol in parallel and gathers
+ * the results in input order.
+ *
+ * Queries run on virtual threads through an AsyncSqlTemplate, whose semaphore limits how many run
+ * at once. A failure for one symbol does not stop the others; it is reported in the result.
+ */
+public class ScatterGather {
+
+  /**
+   * Token in a SQL template that is replaced by the symbol's table name.
+   */
+  public static final String TABLE_TOKEN = "${table}";
+
+  static final Pattern plainIdentifier = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  AsyncSqlTemplate async;
+
+  private ScatterGather() {}
+
+  public static ScatterGather create(AsyncSqlTemplate async) {
+    Preconditions.checkNotNull(async);
+    ScatterGather sg = new ScatterGather();
+    sg.async = async;
+    return sg;
+  }
+
+  public static ScatterGather create(SqlTemplate template, int maxConcurrency) {
+    return create(AsyncSqlTemplate.create(template, maxConcurrency));
+  }
+
+  /**
+   * Outcome per symbol, keyed by the Symbol instances that were passed in. Symbol does not
+   * override equals(), so look results up with those instances rather than with newly parsed ones.
+   */
+  public static class Result<T> {
+    Map<Symbol, List<T>> results = new LinkedHashMap<>();
+    Map<Symbol, Throwable> failures = new LinkedHashMap<>();
+
+    /**
+     * Rows per symbol, for the symbols that succeeded, in input order.
+     */
+    public Map<Symbol, List<T>> getResults() {
+      return results;
+    }
+
+    /**
+     * Failure per symbol, in input order.
+     */
+    public Map<Symbol, Throwable> getFailures() {
+      return failures;
+    }
+
+    public boolean hasFailures() {
+      return !failures.isEmpty();
+    }
+
+    /**
+     * Rows from every symbol that succeeded, concatenated in input order.
+     */
+    public List<T> concat() {
+      List<T> all = Lists.newArrayList();
+      results.values().forEach(all::addAll);
+      return all;
+    }
+
+    /**
+     * Throws a DbException carrying every failure if any symbol failed.
+     */
+    public Result<T> throwIfFailed() {
+      if (failures.isEmpty()) {
+        return this;
+      }
+      DbException e =
+          new DbException(
+              String.format(
+                  "%d of %d symbols failed: %s",
+                  failures.size(), failures.size() + results.size(), failures.keySet()));
+      failures.values().forEach(e::addSuppressed);
+      throw e;
+    }
+  }
+
+  /**
+   * Replaces ${table} in sql with the symbol's table name, quoting it if it is not a plain
+   * identifier.
+   */
+  public static String toSql(String sql, Symbol symbol) {
+    String table = symbol.getTableName();
+    if (!plainIdentifier.matcher(table).matches()) {
+      table = "\"" + table.replace("\"", "\"\"") + "\"";
+    }
+    return sql.replace(TABLE_TOKEN, table);
+  }
+
+  /**
+   * Runs sql for each symbol, with ${table} replaced by the symbol's table name.
+   *
+   * @see #query(Collection, BiConsumer, RowMapper)
+   */
+  public <T> Result<T> query(Collection<Symbol> symbols, String sql, RowMapper<T> mapper) {
+    Preconditions.checkNotNull(sql, "sql cannot be null");
+    return query(symbols, (symbol, b) -> b.sql(toSql(sql, symbol)), mapper);
+  }
+
+  /**
+   * Runs the statement built for each symbol. A Symbol instance that appears more than once in
+   * symbols is queried once; distinct instances are queried separately even if they name the same
+   * table.
+   */
+  public <T> Result<T> query(
+      Collection<Symbol> symbols, BiConsumer<Symbol, StatementBuilder> builder, RowMapper<T> mapper) {
+    Preconditions.checkNotNull(symbols, "symbols cannot be null");
+    Preconditions.checkNotNull(builder, "builder cannot be null");
+    Preconditions.checkNotNull(mapper, "mapper cannot be null");
+
+    Map<Symbol, CompletableFuture<List<T>>> futures = Maps.newLinkedHashMap();
+    for (Symbol symbol : symbols) {
+      if (futures.containsKey(symbol)) {
+        // repeats of the same instance would collapse into one result anyway
+        continue;
+      }
+      futures.put(symbol, async.queryAsync(b -> builder.accept(symbol, b), mapper));
+    }
+
+    Result<T> result = new Result<>();
+    for (Map.Entry<Symbol, CompletableFuture<List<T>>> entry : futures.entrySet()) {
+      try {
+        result.results.put(entry.getKey(), entry.getValue().join());
+      } catch (CompletionException e) {
+        result.failures.put(entry.getKey(), e.getCause() != null ? e.getCause() : e);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,88 @@
+package bq.sql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Lets concurrent query() calls with the same statement, bind values and mapper share one
+ * execution. The first caller runs the query; callers that arrive while it is running wait for it
+ * and receive the same unmodifiable list, or a DbException wrapping its failure. Nothing is kept
+ * once the query completes, so this needs no invalidation and works with or without a
+ * ResultCache.
+ *
+ * A SingleFlight should only be shared by templates that use the same database.
+ *
+ * @see SqlTemplate#withSingleFlight(SingleFlight)
+ */
+public class SingleFlight {
+
+  final ConcurrentHashMap<QueryKey, CompletableFuture<List<?>>> inFlight =
+      new ConcurrentHashMap<>();
+
+  final LongAdder executions = new LongAdder();
+  final LongAdder shared = new LongAdder();
+
+  private SingleFlight() {}
+
+  public static SingleFlight create() {
+    return new SingleFlight();
+  }
+
+  @SuppressWarnings("unchecked")
+  <T> List<T> run(QueryKey key, Supplier<List<T>> query) {
+    CompletableFuture<List<?>> mine = new CompletableFuture<>();
+    CompletableFuture<List<?>> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      shared.increment();
+      return (List<T>) await(running);
+    }
+    executions.increment();
+    try {
+      List<T> rows = query.get();
+      List<T> result = Collections.unmodifiableList(Lists.newArrayList(rows));
+      mine.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  private static List<?> await(CompletableFuture<List<?>> running) {
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DbException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Error err) {
+        throw err;
+      }
+      // wrapped so that this caller's stack trace is kept
+      throw new DbException(e.getCause());
+    }
+  }
+
+  /** Queries that were run, rather than shared. */
+  public long getExecutionCount() {
+    return executions.sum();
+  }
+
+  /** Calls that received the result of a query another caller was already running. */
+  public long getSharedCount() {
+    return shared.sum();
+  }
+
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,152 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+
+import bq.sql.QueryListener.Phase;
+import bq.util.Mask;
+
+/**
+ * Logs SqlTemplate calls that take longer than a threshold, with the template, the time spent in
+ * each phase, the row count and the bind values. Values of parameters whose names look sensitive
+ * to Mask.isSensitiveKey() are masked.
+ *
+ * Only a sampled fraction of slow calls is considered, and at most maxPerMinute entries are
+ * logged per minute; the number suppressed is reported with the next entry that is logged.
+ *
+ * @see SqlTemplate#withSlowQueryLog(SlowQueryLog)
+ */
+public class SlowQueryLog {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final int MAX_BIND_LENGTH = 100;
+  static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+  double sampleRate = 1.0;
+  int maxPerMinute = 10;
+
+  Consumer<String> sink = msg -> logger.atWarning().log("%s", msg);
+
+  final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+  final AtomicInteger windowCount = new AtomicInteger();
+  final AtomicInteger suppressedSinceLogged = new AtomicInteger();
+  final LongAdder logged = new LongAdder();
+  final LongAdder suppressed = new LongAdder();
+
+  private SlowQueryLog() {}
+
+  public static SlowQueryLog create() {
+    return new SlowQueryLog();
+  }
+
+  /** Calls that take at least this long are slow. The default is one second. */
+  public SlowQueryLog threshold(Duration threshold) {
+    Preconditions.checkArgument(
+        threshold != null && !threshold.isNegative(), "threshold must not be negative");
+    this.thresholdNanos = threshold.toNanos();
+    return this;
+  }
+
+  /** Fraction of slow calls to log, from 0 to 1. The default is 1. */
+  public SlowQueryLog sampleRate(double rate) {
+    Preconditions.checkArgument(rate >= 0 && rate <= 1, "sampleRate must be between 0 and 1");
+    this.sampleRate = rate;
+    return this;
+  }
+
+  /** Most entries to log per minute. The default is 10. */
+  public SlowQueryLog maxPerMinute(int max) {
+    Preconditions.checkArgument(max >= 0, "maxPerMinute must be >= 0");
+    this.maxPerMinute = max;
+    return this;
+  }
+
+  public long getLoggedCount() {
+    return logged.sum();
+  }
+
+  /** Slow calls that were sampled but not logged because of maxPerMinute. */
+  public long getSuppressedCount() {
+    return suppressed.sum();
+  }
+
+  void onQuery(StatementBuilder b, long nanos, long[] phaseNanos, long rows, boolean failed) {
+    if (nanos < thresholdNanos) {
+      return;
+    }
+    if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return;
+    }
+    if (!tryAcquire()) {
+      suppressed.increment();
+      suppressedSinceLogged.incrementAndGet();
+      return;
+    }
+    logged.increment();
+    sink.accept(format(b, nanos, phaseNanos, rows, failed, suppressedSinceLogged.getAndSet(0)));
+  }
+
+  private boolean tryAcquire() {
+    long now = System.nanoTime();
+    long start = windowStart.get();
+    if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+      windowCount.set(0);
+    }
+    return windowCount.incrementAndGet() <= maxPerMinute;
+  }
+
+  static String format(
+      StatementBuilder b, long nanos, long[] phaseNanos, long rows, boolean failed, int skipped) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(failed ? "slow query failed after " : "slow query took ");
+    appendMillis(sb, nanos);
+    sb.append(" (");
+    for (Phase phase : Phase.values()) {
+      if (phase.ordinal() > 0) {
+        sb.append(' ');
+      }
+      sb.append(phase.name().toLowerCase()).append('=');
+      appendMillis(sb, phaseNanos[phase.ordinal()]);
+    }
+    sb.append(") rows=").append(rows);
+    sb.append(" sql=<").append(b.getFingerprint()).append('>');
+    sb.append(" binds={");
+    for (int i = 1; i <= b.paramNames.size(); i++) {
+      String name = b.paramNames.get(i - 1);
+      if (i > 1) {
+        sb.append(", ");
+      }
+      sb.append(name).append('=').append(formatBind(name, b.getBinding(i)));
+    }
+    sb.append('}');
+    if (skipped > 0) {
+      sb.append(" (").append(skipped).append(" slow queries not logged)");
+    }
+    return sb.toString();
+  }
+
+  static String formatBind(String name, Object val) {
+    String s = String.valueOf(val);
+    if (Mask.isSensitiveKey(name)) {
+      return Mask.mask(s);
+    }
+    if (s.length() > MAX_BIND_LENGTH) {
+      return s.substring(0, MAX_BIND_LENGTH) + "...";
+    }
+    return s;
+  }
+
+  private static void appendMillis(StringBuilder sb, long nanos) {
+    sb.append(String.format("%.1fms", nanos / 1_000_000.0));
+  }
+}
@@ -1,13 +1,16 @@
 package bq.sql;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class SqlCloser implements AutoCloseable {
 
@@ -17,6 +20,14 @@ public class SqlCloser implements AutoCloseable {
   List<Statement> statements = Lists.newArrayList();
   List<ResultSet> resultSets = Lists.newArrayList();
   List<Throwable> exceptions = Lists.newArrayList();
+  Map<Statement, CachedStatement> cachedStatements = Maps.newIdentityHashMap();
+  boolean closed = false;
+
+  static class CachedStatement {
+    StatementCache cache;
+    Connection connection;
+    String key;
+  }
 
   public static SqlCloser create() {
     return new SqlCloser();
@@ -25,6 +36,11 @@ public class SqlCloser implements AutoCloseable {
   @Override
   public void close() {
 
+    if (closed) {
+      return;
+    }
+    closed = true;
+
     for (ResultSet rs : resultSets.reversed()) {
       try {
         logger.atFinest().log("closing %s", rs);
@@ -36,8 +52,14 @@ public class SqlCloser implements AutoCloseable {
 
     for (Statement st : statements.reversed()) {
       try {
-        logger.atFinest().log("closing %s", st);
-        st.close();
+        CachedStatement cached = cachedStatements.get(st);
+        if (cached != null) {
+          logger.atFinest().log("releasing %s", st);
+          cached.cache.release(cached.connection, cached.key, (PreparedStatement) st);
+        } else {
+          logger.atFinest().log("closing %s", st);
+          st.close();
+        }
       } catch (RuntimeException | SQLException e) {
         exceptions.add(e);
       }
@@ -53,6 +75,9 @@ public class SqlCloser implements AutoCloseable {
           
           logger.atFinest().log("closing %s", c);
           c.close();
+          if (!cachedStatements.isEmpty() && StatementCache.physical(c).isClosed()) {
+            clearStatementCaches(c);
+          }
         }
 
       } catch (RuntimeException | SQLException e) {
@@ -75,6 +100,14 @@ public class SqlCloser implements AutoCloseable {
     }
   }
 
+  private void clearStatementCaches(Connection c) {
+    for (CachedStatement cached : cachedStatements.values()) {
+      if (cached.connection == c) {
+        cached.cache.clear(c);
+      }
+    }
+  }
+
   public void register(Results rs) {
     register(rs.getResultSet());
   }
@@ -87,6 +120,19 @@ public class SqlCloser implements AutoCloseable {
     statements.add(st);
   }
 
+  /**
+   * Registers a statement that was checked out of a StatementCache. It will be returned to the
+   * cache rather than closed.
+   */
+  public void register(PreparedStatement ps, StatementCache cache, Connection c, String key) {
+    CachedStatement cached = new CachedStatement();
+    cached.cache = cache;
+    cached.connection = c;
+    cached.key = key;
+    cachedStatements.put(ps, cached);
+    statements.add(ps);
+  }
+
   public void register(ResultSet rs) {
     resultSets.add(rs);
   }
@@ -0,0 +1,133 @@
+package bq.sql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import com.google.common.flogger.FluentLogger;
+
+import bq.sql.QueryListener.Phase;
+
+/**
+ * Java Flight Recorder events for the phases of SqlTemplate calls, so that allocation, GC and lock
+ * events in a recording can be tied to the statement that caused them. Events carry the statement
+ * fingerprint, bind count and row count, never bind values.
+ *
+ * QueryTimer only creates events while a recording is running, which is tracked with a
+ * FlightRecorderListener rather than checked per call.
+ */
+final class SqlEvents {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static volatile boolean recording = false;
+
+  static final Set<SqlTemplate> templates =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  static {
+    try {
+      FlightRecorder.addListener(
+          new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording r) {
+              boolean now = isRecording();
+              if (now != recording) {
+                recording = now;
+                List<SqlTemplate> all;
+                synchronized (templates) {
+                  all = List.copyOf(templates);
+                }
+                all.forEach(SqlTemplate::resolveTimerSinks);
+              }
+            }
+          });
+      recording = isRecording();
+    } catch (RuntimeException | Error e) {
+      logger.atFine().withCause(e).log("JFR events are not available");
+    }
+  }
+
+  private SqlEvents() {}
+
+  /**
+   * Tracks the template so that its timer sinks are resolved again when a recording starts or
+   * stops. Templates are held weakly.
+   */
+  static void register(SqlTemplate template) {
+    templates.add(template);
+  }
+
+  private static boolean isRecording() {
+    if (!FlightRecorder.isInitialized()) {
+      return false;
+    }
+    List<Recording> recordings = FlightRecorder.getFlightRecorder().getRecordings();
+    return recordings.stream().anyMatch(r -> r.getState() == RecordingState.RUNNING);
+  }
+
+  @Category({"bq", "SQL"})
+  abstract static class PhaseEvent extends Event {
+    @Label("Fingerprint")
+    @Description("Template text of the statement")
+    String fingerprint;
+
+    @Label("Bind Count")
+    int bindCount;
+
+    @Label("Rows")
+    @Description("Rows read or updated by the statement so far")
+    long rows;
+  }
+
+  @Name("bq.sql.Acquire")
+  @Label("SQL Connection Acquire")
+  static class Acquire extends PhaseEvent {}
+
+  @Name("bq.sql.Prepare")
+  @Label("SQL Prepare")
+  static class Prepare extends PhaseEvent {}
+
+  @Name("bq.sql.Execute")
+  @Label("SQL Execute")
+  static class Execute extends PhaseEvent {}
+
+  @Name("bq.sql.Fetch")
+  @Label("SQL Fetch")
+  @Description("Reading and mapping rows")
+  static class Fetch extends PhaseEvent {}
+
+  @Name("bq.sql.Close")
+  @Label("SQL Close")
+  static class Close extends PhaseEvent {}
+
+  /**
+   * Begins the event for a phase, or returns null if that event type is disabled.
+   */
+  static PhaseEvent begin(Phase phase) {
+    PhaseEvent event =
+        switch (phase) {
+          case ACQUIRE -> new Acquire();
+          case PREPARE -> new Prepare();
+          case EXECUTE -> new Execute();
+          case FETCH -> new Fetch();
+          case CLOSE -> new Close();
+        };
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+}
@@ -0,0 +1,90 @@
+package bq.sql;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Single-pass lexer for {{param}} style SQL templates.
+ *
+ * The template is scanned once, left to right. Text between placeholders is emitted as fragments
+ * and the placeholder names are emitted in order, so for n parameters there are always n+1
+ * fragments. Placeholders inside quoted literals, quoted identifiers and comments are left
+ * untouched.
+ */
+public class SqlLexer {
+
+  List<String> fragments = Lists.newArrayList();
+  List<String> paramNames = Lists.newArrayList();
+
+  private SqlLexer() {}
+
+  public static SqlLexer lex(String sql) {
+    SqlLexer lexer = new SqlLexer();
+    lexer.scan(sql == null ? "" : sql);
+    return lexer;
+  }
+
+  /**
+   * Text surrounding the parameters. There is always one more fragment than there are parameters.
+   */
+  public List<String> getFragments() {
+    return fragments;
+  }
+
+  public List<String> getParamNames() {
+    return paramNames;
+  }
+
+  public int getParamCount() {
+    return paramNames.size();
+  }
+
+  private void scan(String s) {
+    int len = s.length();
+    int start = 0;
+    int i = 0;
+    while (i < len) {
+      char c = s.charAt(i);
+      if (c == '\'' || c == '"') {
+        i = skipQuoted(s, i, c);
+      } else if (c == '-' && i + 1 < len && s.charAt(i + 1) == '-') {
+        i = skipLineComment(s, i);
+      } else if (c == '/' && i + 1 < len && s.charAt(i + 1) == '*') {
+        i = skipBlockComment(s, i);
+      } else if (c == '{' && i + 1 < len && s.charAt(i + 1) == '{') {
+        int end = s.indexOf("}}", i + 2);
+        if (end < 0) {
+          // unterminated placeholder is just text
+          i = len;
+        } else {
+          fragments.add(s.substring(start, i));
+          paramNames.add(s.substring(i + 2, end).trim());
+          i = end + 2;
+          start = i;
+        }
+      } else {
+        i++;
+      }
+    }
+    fragments.add(s.substring(start));
+    Preconditions.checkState(fragments.size() == paramNames.size() + 1);
+  }
+
+  private int skipQuoted(String s, int i, char quote) {
+    // a doubled quote is an escaped quote, which falls out naturally by re-entering the literal
+    int end = s.indexOf(quote, i + 1);
+    return end < 0 ? s.length() : end + 1;
+  }
+
+  private int skipLineComment(String s, int i) {
+    int end = s.indexOf('\n', i + 2);
+    return end < 0 ? s.length() : end + 1;
+  }
+
+  private int skipBlockComment(String s, int i) {
+    int end = s.indexOf("*/", i + 2);
+    return end < 0 ? s.length() : end + 2;
+  }
+}
@@ -0,0 +1,209 @@
+package bq.sql;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Finds the tables that a statement reads or writes, for ResultCache invalidation.
+ *
+ * This is a keyword scan, not a SQL parser. Names are lowercased and reduced to their last
+ * component, so main.bars and "Bars" are both bars. Reads are the names after FROM and JOIN,
+ * including comma-separated lists; a table function or table macro there is reported as
+ * TABLE_FUNCTION, since the tables behind it are unknown. A statement that isn't a read and whose
+ * targets cannot be found is reported as writing ALL tables, so that errors fall on the side of
+ * invalidating too much.
+ */
+final class SqlTables {
+
+  static final String ALL_TABLES = "*";
+  static final Set<String> ALL = ImmutableSet.of(ALL_TABLES);
+  static final String TABLE_FUNCTION = "()";
+
+  static final Pattern TOKEN =
+      Pattern.compile(
+          "'(?:[^']|'')*'|--[^\\n]*|/\\*.*?\\*/|\"((?:[^\"]|\"\")*)\"|([A-Za-z_][\\w$]*)|(\\S)",
+          Pattern.DOTALL);
+
+  static final Set<String> READ_ONLY =
+      ImmutableSet.of(
+          "select", "with", "values", "show", "describe", "explain", "summarize", "pragma", "set",
+          "reset", "begin", "commit", "rollback", "checkpoint", "(");
+
+  static final Set<String> WRITE_VERBS =
+      ImmutableSet.of(
+          "insert", "update", "delete", "merge", "create", "drop", "alter", "truncate", "copy");
+
+  // words that can follow a table name but are not aliases
+  static final Set<String> NOT_ALIAS =
+      ImmutableSet.of(
+          "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural",
+          "positional", "asof", "anti", "semi", "on", "using", "group", "order", "limit",
+          "offset", "having", "window", "qualify", "union", "intersect", "except", "pivot",
+          "unpivot", "sample", "tablesample", "returning", "set", "select", "values", "default",
+          "by");
+
+  private SqlTables() {}
+
+  static Set<String> readTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    ImmutableSet.Builder<String> tables = ImmutableSet.builder();
+    for (int i = 0; i < tokens.size(); i++) {
+      String t = tokens.get(i);
+      if (t.equals("from") || t.equals("join")) {
+        i = readTableList(tokens, i + 1, tables);
+      }
+    }
+    return tables.build();
+  }
+
+  /**
+   * Tables written by the statement: empty for reads, ALL if the targets are unknown.
+   */
+  static Set<String> writtenTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    if (tokens.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    boolean readOnly = READ_ONLY.contains(tokens.getFirst());
+    ImmutableSet.Builder<String> tables = ImmutableSet.builder();
+    for (int i = 0; i < tokens.size(); i++) {
+      if (!WRITE_VERBS.contains(tokens.get(i))) {
+        continue;
+      }
+      if (readOnly && i > 0 && !tokens.get(i - 1).equals(")")) {
+        // in a read, a write verb only counts where it starts the body of a WITH
+        continue;
+      }
+      String target = target(tokens, i);
+      if (target == null) {
+        return ALL;
+      }
+      tables.add(target);
+    }
+    Set<String> written = tables.build();
+    return !readOnly && written.isEmpty() ? ALL : written;
+  }
+
+  /**
+   * The view that the statement creates or replaces, or null if it doesn't create a view. Its read
+   * tables are the view's sources.
+   */
+  static String createdView(String sql) {
+    List<String> tokens = tokenize(sql);
+    if (tokens.isEmpty() || !tokens.getFirst().equals("create")) {
+      return null;
+    }
+    int j = skip(tokens, 1, "or", "replace", "temp", "temporary");
+    if (j >= tokens.size() || !tokens.get(j).equals("view")) {
+      return null;
+    }
+    j = skip(tokens, j + 1, "if", "not", "exists");
+    return j < tokens.size() && isName(tokens.get(j)) ? name(tokens, j) : null;
+  }
+
+  /**
+   * The table named after the write verb at tokens[i].
+   */
+  private static String target(List<String> tokens, int i) {
+    String verb = tokens.get(i);
+    int j = i + 1;
+    switch (verb) {
+      case "insert", "merge" -> j = skip(tokens, j, "or", "replace", "ignore", "into");
+      case "delete" -> j = skip(tokens, j, "from");
+      case "create", "drop", "alter" -> {
+        j = skip(tokens, j, "or", "replace", "temp", "temporary", "materialized");
+        if (j >= tokens.size() || !(tokens.get(j).equals("table") || tokens.get(j).equals("view"))) {
+          // indexes, sequences, macros, schemas and the like don't hold cached rows, but their
+          // effect on results is unknown
+          return null;
+        }
+        j = skip(tokens, j + 1, "if", "not", "exists");
+      }
+      case "truncate" -> j = skip(tokens, j, "table");
+      default -> {}
+    }
+    return j < tokens.size() && isName(tokens.get(j)) ? name(tokens, j) : null;
+  }
+
+  private static int skip(List<String> tokens, int j, String... words) {
+    Set<String> skip = ImmutableSet.copyOf(words);
+    while (j < tokens.size() && skip.contains(tokens.get(j))) {
+      j++;
+    }
+    return j;
+  }
+
+  private static int readTableList(List<String> tokens, int i, ImmutableSet.Builder<String> out) {
+    while (i < tokens.size()) {
+      if (!isName(tokens.get(i)) || NOT_ALIAS.contains(tokens.get(i))) {
+        return i - 1;
+      }
+      String name = name(tokens, i);
+      // skip the rest of a qualified name
+      while (i + 2 < tokens.size() && tokens.get(i + 1).equals(".")) {
+        i += 2;
+      }
+      i++;
+      if (i < tokens.size() && tokens.get(i).equals("(")) {
+        out.add(TABLE_FUNCTION);
+        return i - 1;
+      }
+      out.add(name);
+      if (i < tokens.size() && tokens.get(i).equals("as")) {
+        i++;
+      }
+      if (i < tokens.size() && isName(tokens.get(i)) && !NOT_ALIAS.contains(tokens.get(i))) {
+        i++;
+      }
+      if (i >= tokens.size() || !tokens.get(i).equals(",")) {
+        return i - 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * The last component of the possibly qualified name starting at tokens[i].
+   */
+  private static String name(List<String> tokens, int i) {
+    while (i + 2 < tokens.size() && tokens.get(i + 1).equals(".") && isName(tokens.get(i + 2))) {
+      i += 2;
+    }
+    String name = tokens.get(i);
+    return name.startsWith("\"") ? name.substring(1) : name;
+  }
+
+  private static boolean isName(String token) {
+    char c = token.charAt(0);
+    return c == '"' || c == '_' || Character.isLetter(c);
+  }
+
+  /**
+   * Lowercase words, quoted identifiers as '"' followed by their lowercased text, and single
+   * punctuation characters. Literals and comments are dropped.
+   */
+  static List<String> tokenize(String sql) {
+    List<String> tokens = Lists.newArrayList();
+    if (sql == null) {
+      return tokens;
+    }
+    Matcher m = TOKEN.matcher(sql);
+    while (m.find()) {
+      if (m.group(1) != null) {
+        tokens.add("\"" + m.group(1).replace("\"\"", "\"").toLowerCase(Locale.ROOT));
+      } else if (m.group(2) != null) {
+        tokens.add(m.group(2).toLowerCase(Locale.ROOT));
+      } else if (m.group(3) != null) {
+        tokens.add(m.group(3));
+      }
+    }
+    return tokens;
+  }
+}
@@ -5,25 +5,50 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import bq.sql.QueryListener.Phase;
 
 public class SqlTemplate {
 
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
   Supplier<Connection> connectionSupplier = null;
 
+  StatementCache statementCache = null;
+
+  QueryListener queryListener = null;
+
+  SlowQueryLog slowQueryLog = null;
+
+  volatile QueryTimer.Sinks timerSinks = null;
+
+  ResultCache resultCache = null;
+
+  SingleFlight singleFlight = null;
+
   static Supplier<Connection> globalSupplier = null;
 
   public static SqlTemplate create(Supplier<Connection> cs) {
     Preconditions.checkNotNull(cs);
     SqlTemplate t = new SqlTemplate();
     t.connectionSupplier = cs;
+    SqlEvents.register(t);
+    t.resolveTimerSinks();
     return t;
   }
 
@@ -76,8 +101,223 @@ public class SqlTemplate {
     return SqlTemplate.create(globalSupplier);
   }
 
-  private Connection getConnection() {
-    return this.connectionSupplier.get();
+  /**
+   * Keep prepared statements open across calls, per connection. This pays off on long-lived
+   * connections such as DuckDB's, which SqlCloser never closes. Statements with deferred
+   * bindings are not cached, since those may change statement options such as maxRows that
+   * clearParameters() does not reset.
+   */
+  public SqlTemplate withStatementCache(StatementCache cache) {
+    this.statementCache = cache;
+    return this;
+  }
+
+  public Optional<StatementCache> getStatementCache() {
+    return Optional.ofNullable(statementCache);
+  }
+
+  /**
+   * Reports phase timings of each query(), queryResult(), stream(), execute() and executeUpdate()
+   * call to the listener, or stops reporting if it is null. Without a listener, and with no JFR
+   * recording running, nothing is timed.
+   *
+   * @see SqlEvents
+   */
+  public synchronized SqlTemplate withQueryListener(QueryListener listener) {
+    this.queryListener = listener;
+    resolveTimerSinks();
+    return this;
+  }
+
+  public synchronized Optional<QueryListener> getQueryListener() {
+    return Optional.ofNullable(queryListener);
+  }
+
+  /**
+   * Logs calls that exceed the log's threshold, or stops logging if it is null.
+   */
+  public synchronized SqlTemplate withSlowQueryLog(SlowQueryLog log) {
+    this.slowQueryLog = log;
+    resolveTimerSinks();
+    return this;
+  }
+
+  /**
+   * Combines the listener, slow query log and JFR recording state into the single value that each
+   * call reads. Called whenever one of them changes.
+   */
+  synchronized void resolveTimerSinks() {
+    timerSinks = QueryTimer.Sinks.resolve(queryListener, slowQueryLog, SqlEvents.recording);
+  }
+
+  public synchronized Optional<SlowQueryLog> getSlowQueryLog() {
+    return Optional.ofNullable(slowQueryLog);
+  }
+
+  /**
+   * Serve query() results from the cache, and invalidate its entries on writes. Templates that
+   * write to tables whose results are cached should share the same cache. Statements with deferred
+   * bindings, and queries inside inTransaction(), which may see uncommitted rows, are never
+   * cached.
+   */
+  public SqlTemplate withResultCache(ResultCache cache) {
+    this.resultCache = cache;
+    return this;
+  }
+
+  public Optional<ResultCache> getResultCache() {
+    return Optional.ofNullable(resultCache);
+  }
+
+  /**
+   * Share one execution between concurrent identical query() calls. With a ResultCache, its
+   * loading already does this, so this only applies to queries that bypass the cache.
+   */
+  public SqlTemplate withSingleFlight(SingleFlight singleFlight) {
+    this.singleFlight = singleFlight;
+    return this;
+  }
+
+  public Optional<SingleFlight> getSingleFlight() {
+    return Optional.ofNullable(singleFlight);
+  }
+
+  /**
+   * Connection bound to the current thread by withConnection() or inTransaction().
+   */
+  static class Scope {
+    Connection connection;
+    boolean inTransaction = false;
+    List<Runnable> afterTransaction = Lists.newArrayList();
+  }
+
+  static final ThreadLocal<Map<Supplier<Connection>, Scope>> scopes = new ThreadLocal<>();
+
+  private boolean inTransaction() {
+    Scope scope = currentScope();
+    return scope != null && scope.inTransaction;
+  }
+
+  private Scope currentScope() {
+    Map<Supplier<Connection>, Scope> m = scopes.get();
+    return m == null ? null : m.get(connectionSupplier);
+  }
+
+  /**
+   * Returns the connection bound to this thread, or a new one that the closer will release.
+   */
+  private Connection getConnection(SqlCloser closer) {
+    Scope scope = currentScope();
+    if (scope != null) {
+      return scope.connection;
+    }
+    Connection c = this.connectionSupplier.get();
+    closer.register(c);
+    return c;
+  }
+
+  /**
+   * Runs fn with one connection bound to the current thread. Every SqlTemplate call on this
+   * thread that uses the same connection supplier reuses that connection until fn returns. Nested
+   * scopes join the outer one. Work handed to other threads does not see the scope.
+   */
+  public <T> T withConnection(Function<SqlTemplate, T> fn) {
+    Preconditions.checkNotNull(fn);
+    if (currentScope() != null) {
+      return fn.apply(this);
+    }
+    Map<Supplier<Connection>, Scope> m = scopes.get();
+    if (m == null) {
+      m = Maps.newIdentityHashMap();
+      scopes.set(m);
+    }
+    try (SqlCloser closer = SqlCloser.create()) {
+      Scope scope = new Scope();
+      scope.connection = connectionSupplier.get();
+      closer.register(scope.connection);
+      m.put(connectionSupplier, scope);
+      try {
+        return fn.apply(this);
+      } finally {
+        m.remove(connectionSupplier);
+        if (m.isEmpty()) {
+          scopes.remove();
+        }
+      }
+    }
+  }
+
+  public void withConnection(Runnable r) {
+    Preconditions.checkNotNull(r);
+    withConnection(
+        t -> {
+          r.run();
+          return null;
+        });
+  }
+
+  /**
+   * Runs fn in a transaction on a connection bound to the current thread, as with
+   * withConnection(). The transaction commits once when fn returns and rolls back if it throws. A
+   * nested inTransaction() joins the outer transaction.
+   */
+  public <T> T inTransaction(Function<SqlTemplate, T> fn) {
+    Preconditions.checkNotNull(fn);
+    return withConnection(
+        t -> {
+          Scope scope = currentScope();
+          if (scope.inTransaction) {
+            return fn.apply(this);
+          }
+          Connection c = scope.connection;
+          try {
+            boolean autoCommit = c.getAutoCommit();
+            if (autoCommit) {
+              c.setAutoCommit(false);
+            }
+            scope.inTransaction = true;
+            Throwable failure = null;
+            try {
+              T result = fn.apply(this);
+              c.commit();
+              return result;
+            } catch (SQLException | RuntimeException | Error e) {
+              failure = e;
+              rollback(c, e);
+              throw e;
+            } finally {
+              scope.inTransaction = false;
+              scope.afterTransaction.forEach(Runnable::run);
+              scope.afterTransaction.clear();
+              if (autoCommit) {
+                restoreAutoCommit(c, failure);
+              }
+            }
+          } catch (SQLException e) {
+            throw new DbException(e);
+          }
+        });
+  }
+
+  public void inTransaction(Runnable r) {
+    Preconditions.checkNotNull(r);
+    inTransaction(
+        t -> {
+          r.run();
+          return null;
+        });
+  }
+
+  private PreparedStatement prepare(Connection c, StatementBuilder b, SqlCloser closer)
+      throws SQLException {
+    if (statementCache == null || !b.deferredBindings.isEmpty()) {
+      PreparedStatement ps = b.prepare(c);
+      closer.register(ps);
+      return ps;
+    }
+    PreparedStatement ps = statementCache.checkout(c, b);
+    closer.register(ps, statementCache, c, b.getStatementKey());
+    return ps;
   }
 
   public String queryString(Consumer<StatementBuilder> builder) {
@@ -109,7 +349,7 @@ public class SqlTemplate {
   }
 
 
-  public <T> Optional<T> queryFirst(Consumer<StatementBuilder> builder, RowMapper mapper) {
+  public <T> Optional<T> queryFirst(Consumer<StatementBuilder> builder, RowMapper<T> mapper) {
     List<T> x = query(builder, mapper);
     if (x.isEmpty()) {
       return Optional.empty();
@@ -117,7 +357,7 @@ public class SqlTemplate {
     return Optional.of(x.getFirst());
   }
 
-  public <T> T queryResult(Consumer<StatementBuilder> builder, ResultSetProcessor processor) {
+  public <T> T queryResult(Consumer<StatementBuilder> builder, ResultSetProcessor<T> processor) {
     Preconditions.checkNotNull(builder, "builder cannot be null");
     Preconditions.checkNotNull(processor, "ResultSetProcessor cannot be null");
     StatementBuilder b = StatementBuilder.create();
@@ -126,26 +366,51 @@ public class SqlTemplate {
 
     String sql = b.getSql();
 
+    QueryTimer timer = QueryTimer.start(timerSinks, b);
     try (SqlCloser closer = SqlCloser.create()) {
-      Connection c = getConnection();
-      closer.register(c);
+      Connection c = getConnection(closer);
 
-      PreparedStatement ps = c.prepareStatement(sql);
-      closer.register(ps);
+      timer.begin(Phase.PREPARE);
+      PreparedStatement ps = prepare(c, b, closer);
 
       b.bind(ps);
 
+      timer.begin(Phase.EXECUTE);
       ResultSet rs = ps.executeQuery();
+      closer.register(rs);
       Results rsx = Results.create(rs);
-      return (T) processor.process(rsx);
+      if (b.adaptiveFetchSize) {
+        AdaptiveFetchSize fetchSizer = AdaptiveFetchSize.start(sql, rs);
+        if (fetchSizer.isSampling()) {
+          rsx.fetchSizer = fetchSizer;
+        }
+      }
+      timer.begin(Phase.FETCH);
+      T result = processor.process(rsx);
+      timer.succeeded(0);
+      timer.begin(Phase.CLOSE);
+      return result;
     }
     catch (SQLException e) {
       throw new DbException(e);
+    } finally {
+      timer.end();
     }
    }
   
  
-  public <T> List<T> query(Consumer<StatementBuilder> builder, RowMapper mapper) {
+  /**
+   * Maps each row to a record or bean with a mapper from RowMappers.
+   */
+  public <T> List<T> query(Consumer<StatementBuilder> builder, Class<T> type) {
+    return query(builder, RowMappers.of(type));
+  }
+
+  /**
+   * Maps every row. With a ResultCache or SingleFlight, the returned list may be a shared,
+   * unmodifiable one.
+   */
+  public <T> List<T> query(Consumer<StatementBuilder> builder, RowMapper<T> mapper) {
 
     Preconditions.checkNotNull(builder, "builder cannot be null");
     Preconditions.checkNotNull(mapper, "mapper cannot be null");
@@ -154,30 +419,145 @@ public class SqlTemplate {
 
     builder.accept(b);
 
+    ResultCache cache = resultCache;
+    SingleFlight sf = singleFlight;
+    if ((cache != null || sf != null) && b.deferredBindings.isEmpty() && !inTransaction()) {
+      if (cache != null) {
+        return cache.get(b, mapper, () -> runQuery(b, mapper));
+      }
+      return sf.run(QueryKey.of(b, mapper), () -> runQuery(b, mapper));
+    }
+    return runQuery(b, mapper);
+  }
+
+  private <T> List<T> runQuery(StatementBuilder b, RowMapper<T> mapper) {
+
     String sql = b.getSql();
 
+    QueryTimer timer = QueryTimer.start(timerSinks, b);
     try (SqlCloser closer = SqlCloser.create()) {
-      Connection c = getConnection();
-      closer.register(c);
+      Connection c = getConnection(closer);
       List<T> results = Lists.newArrayList();
-      PreparedStatement ps = c.prepareStatement(sql);
-      closer.register(ps);
+      timer.begin(Phase.PREPARE);
+      PreparedStatement ps = prepare(c, b, closer);
 
       b.bind(ps);
 
+      timer.begin(Phase.EXECUTE);
       ResultSet rs = ps.executeQuery();
       closer.register(rs);
+      AdaptiveFetchSize fetchSizer = b.adaptiveFetchSize ? AdaptiveFetchSize.start(sql, rs) : null;
+      timer.begin(Phase.FETCH);
       Results r = Results.create(rs);
       while (r.next()) {
-        T t = (T) mapper.map(r);
+        T t = mapper.map(r);
         results.add(t);
-        ;
+        if (fetchSizer != null) {
+          fetchSizer.onRow();
+        }
       }
+      timer.succeeded(results.size());
+      timer.begin(Phase.CLOSE);
       return results;
     } catch (SQLException e) {
       throw new DbException(e);
+    } finally {
+      timer.end();
+    }
+
+  }
+
+  public <T> Stream<T> stream(Consumer<StatementBuilder> builder, Class<T> type) {
+    return stream(builder, RowMappers.of(type));
+  }
+
+  /**
+   * Lazily maps rows as the stream pulls them from an open cursor. The connection, statement and
+   * result set are released when the stream is exhausted or closed, so callers that may stop early
+   * should use try-with-resources.
+   */
+  public <T> Stream<T> stream(Consumer<StatementBuilder> builder, RowMapper<T> mapper) {
+
+    Preconditions.checkNotNull(builder, "builder cannot be null");
+    Preconditions.checkNotNull(mapper, "mapper cannot be null");
+
+    StatementBuilder b = StatementBuilder.create();
+
+    builder.accept(b);
+
+    String sql = b.getSql();
+
+    QueryTimer timer = QueryTimer.start(timerSinks, b);
+    SqlCloser closer = SqlCloser.create();
+    try {
+      Connection c = getConnection(closer);
+
+      timer.begin(Phase.PREPARE);
+      PreparedStatement ps = prepare(c, b, closer);
+
+      b.bind(ps);
+
+      timer.begin(Phase.EXECUTE);
+      ResultSet rs = ps.executeQuery();
+      closer.register(rs);
+      AdaptiveFetchSize fetchSizer = b.adaptiveFetchSize ? AdaptiveFetchSize.start(sql, rs) : null;
+      timer.begin(Phase.FETCH);
+      Results r = Results.create(rs);
+
+      Spliterator<T> spliterator =
+          new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+              try {
+                if (!r.next()) {
+                  timer.succeeded(timer.rows);
+                  close(closer, timer);
+                  return false;
+                }
+                T t = mapper.map(r);
+                timer.row();
+                if (fetchSizer != null) {
+                  fetchSizer.onRow();
+                }
+                action.accept(t);
+                return true;
+              } catch (SQLException e) {
+                DbException dbe = new DbException(e);
+                closeAfterFailure(closer, timer, dbe);
+                throw dbe;
+              } catch (RuntimeException e) {
+                closeAfterFailure(closer, timer, e);
+                throw e;
+              }
+            }
+          };
+      return StreamSupport.stream(spliterator, false).onClose(() -> close(closer, timer));
+    } catch (SQLException e) {
+      DbException dbe = new DbException(e);
+      closeAfterFailure(closer, timer, dbe);
+      throw dbe;
+    } catch (RuntimeException e) {
+      closeAfterFailure(closer, timer, e);
+      throw e;
     }
+  }
+
+  private static void close(SqlCloser closer, QueryTimer timer) {
+    timer.begin(Phase.CLOSE);
+    try {
+      closer.close();
+    } finally {
+      timer.end();
+    }
+  }
 
+  private static void closeAfterFailure(SqlCloser closer, QueryTimer timer, Exception cause) {
+    try {
+      close(closer, timer);
+    } catch (RuntimeException e) {
+      cause.addSuppressed(e);
+    }
   }
 
   public boolean execute(Consumer<StatementBuilder> builder) {
@@ -188,18 +568,25 @@ public class SqlTemplate {
 
     String sql = b.getSql();
 
+    QueryTimer timer = QueryTimer.start(timerSinks, b);
     try (SqlCloser closer = SqlCloser.create()) {
-      Connection c = getConnection();
-      closer.register(c);
+      Connection c = getConnection(closer);
 
-      PreparedStatement ps = c.prepareStatement(sql);
-      closer.register(ps);
+      timer.begin(Phase.PREPARE);
+      PreparedStatement ps = prepare(c, b, closer);
 
       b.bind(ps);
 
-      return ps.execute();
+      timer.begin(Phase.EXECUTE);
+      boolean result = ps.execute();
+      timer.succeeded(0);
+      timer.begin(Phase.CLOSE);
+      return result;
     } catch (SQLException e) {
       throw new DbException(e);
+    } finally {
+      timer.end();
+      onWrite(b.getFingerprint());
     }
   }
 
@@ -222,18 +609,162 @@ public class SqlTemplate {
 
     String sql = b.getSql();
 
+    QueryTimer timer = QueryTimer.start(timerSinks, b);
     try (SqlCloser closer = SqlCloser.create()) {
-      Connection c = getConnection();
-      closer.register(c);
+      Connection c = getConnection(closer);
 
-      PreparedStatement ps = c.prepareStatement(sql);
-      closer.register(ps);
+      timer.begin(Phase.PREPARE);
+      PreparedStatement ps = prepare(c, b, closer);
 
       b.bind(ps);
 
-      return ps.executeUpdate();
+      timer.begin(Phase.EXECUTE);
+      int count = ps.executeUpdate();
+      timer.succeeded(count);
+      timer.begin(Phase.CLOSE);
+      return count;
+    } catch (SQLException e) {
+      throw new DbException(e);
+    } finally {
+      timer.end();
+      onWrite(b.getFingerprint());
+    }
+  }
+
+  public List<int[]> executeBatch(String sql, Iterable<? extends Map<String, ?>> rows) {
+    return executeBatch(sql, rows, DEFAULT_BATCH_SIZE, false);
+  }
+
+  public List<int[]> executeBatch(String sql, Stream<? extends Map<String, ?>> rows) {
+    return executeBatch(sql, rows, DEFAULT_BATCH_SIZE, false);
+  }
+
+  public List<int[]> executeBatch(
+      String sql, Stream<? extends Map<String, ?>> rows, int batchSize, boolean transactional) {
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    try (rows) {
+      Iterable<Map<String, ?>> it = rows.<Map<String, ?>>map(row -> row)::iterator;
+      return executeBatch(sql, it, batchSize, transactional);
+    }
+  }
+
+  /**
+   * Executes a {{named}} template once per row using JDBC batching on a single connection and
+   * PreparedStatement. Each row maps parameter names to values. The batch is flushed every
+   * batchSize rows, and the update counts of each flush are returned in order. If transactional
+   * is true, all batches are committed together or rolled back on failure.
+   *
+   * @throws IllegalArgumentException if a row binds a StatementBuilder.InList, since the SQL is
+   *     prepared once and can't be expanded per row
+   */
+  public List<int[]> executeBatch(
+      String sql, Iterable<? extends Map<String, ?>> rows, int batchSize, boolean transactional) {
+    Preconditions.checkNotNull(sql, "sql cannot be null");
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+
+    if (transactional) {
+      return inTransaction(t -> t.executeBatch(sql, rows, batchSize, false));
+    }
+
+    StatementBuilder b = StatementBuilder.create().sql(sql);
+
+    try (SqlCloser closer = SqlCloser.create()) {
+      Connection c = getConnection(closer);
+
+      PreparedStatement ps = prepare(c, b, closer);
+
+      List<int[]> counts = Lists.newArrayList();
+      int pending = 0;
+      for (Map<String, ?> row : rows) {
+        b.bindings.clear();
+        b.bindings.putAll(row);
+        Preconditions.checkArgument(
+            !b.hasInListBindings(),
+            "executeBatch prepares the statement once and cannot expand IN lists: %s",
+            sql);
+        b.bind(ps);
+        ps.addBatch();
+        pending++;
+        if (pending >= batchSize) {
+          counts.add(ps.executeBatch());
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        counts.add(ps.executeBatch());
+      }
+      return counts;
     } catch (SQLException e) {
       throw new DbException(e);
+    } finally {
+      onWrite(sql);
+    }
+  }
+
+  /**
+   * Invalidates cached results that the statement may have changed. In a transaction, they are
+   * invalidated again when it ends, since other threads may have cached rows read before commit.
+   */
+  private void onWrite(String fingerprint) {
+    ResultCache cache = resultCache;
+    if (cache == null) {
+      return;
+    }
+    cache.onWrite(fingerprint);
+    Scope scope = currentScope();
+    if (scope != null && scope.inTransaction) {
+      scope.afterTransaction.add(() -> cache.onWrite(fingerprint));
+    }
+  }
+
+  /**
+   * Loads rows into a table in one transaction. Each row holds a value for every column in table
+   * order. DuckDB connections use the native Appender; other drivers use JDBC batches.
+   */
+  public long bulkInsert(String table, Iterable<? extends List<?>> rows) {
+    Preconditions.checkNotNull(table, "table cannot be null");
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    return inTransaction(
+        t -> {
+          try {
+            return BulkInsert.insert(currentScope().connection, table, rows, DEFAULT_BATCH_SIZE);
+          } catch (SQLException e) {
+            throw new DbException(e);
+          } finally {
+            onWrite("insert into " + table);
+          }
+        });
+  }
+
+  public long bulkInsert(String table, Stream<? extends List<?>> rows) {
+    Preconditions.checkNotNull(rows, "rows cannot be null");
+    try (rows) {
+      Iterable<List<?>> it = rows.<List<?>>map(row -> row)::iterator;
+      return bulkInsert(table, it);
+    }
+  }
+
+  private void rollback(Connection c, Throwable cause) {
+    try {
+      c.rollback();
+    } catch (SQLException | RuntimeException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Turns autoCommit back on after a transaction. If the transaction failed, a failure here is
+   * attached to that exception rather than replacing it.
+   */
+  private void restoreAutoCommit(Connection c, Throwable cause) throws SQLException {
+    try {
+      c.setAutoCommit(true);
+    } catch (SQLException | RuntimeException e) {
+      if (cause == null) {
+        throw e;
+      }
+      cause.addSuppressed(e);
     }
   }
 
@@ -1,29 +1,60 @@
 package bq.sql;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
 
 public class StatementBuilder {
 
-  static final Pattern parsePattern = Pattern.compile("(.*?)\\{\\{(.*?)\\}\\}(.*)",Pattern.MULTILINE | Pattern.DOTALL);
   List<String> fragments = Lists.newArrayList();
   int index = 0;
   List<String> paramNames = Lists.newArrayList();
+  List<ParsedSql> templates = Lists.newArrayList();
 
   Map<String, Object> bindings = Maps.newHashMap();
 
   List<Consumer<Statement>> deferredBindings = Lists.newArrayList();
 
+  Integer fetchSize = null;
+  boolean adaptiveFetchSize = false;
+  Integer maxRows = null;
+  Duration queryTimeout = null;
+  int resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+  int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
+  Integer arrayBindThreshold = null;
+
+  /**
+   * A bind value to be expanded into a list of placeholders, for use inside {@code IN (...)}.
+   * Collections bound directly are passed to the driver as a single value.
+   */
+  public record InList(List<?> values) {
+
+    public InList {
+      Preconditions.checkArgument(values != null, "values must not be null");
+      // x NOT IN (NULL) is never true, so an empty list can't be rendered safely
+      Preconditions.checkArgument(!values.isEmpty(), "IN list must not be empty");
+    }
+
+    @Override
+    public String toString() {
+      return values.toString();
+    }
+  }
+
   private StatementBuilder() {
 
   }
@@ -67,63 +98,198 @@ public class StatementBuilder {
     return this;
   }
 
+  /**
+   * Binds the values as an IN list, such as {@code ticker in ({{tickers}})}.
+   *
+   * @throws IllegalArgumentException if values is empty
+   * @see #inList(Collection)
+   */
+  public StatementBuilder bindInList(String name, Collection<?> values) {
+    return bind(name, inList(values));
+  }
+
+  /**
+   * Wraps values so that they are expanded into one placeholder per element when bound, by name or
+   * by position. An empty collection is rejected rather than rendered as {@code (NULL)}, which
+   * would make {@code x NOT IN (...)} match no rows; callers should skip the query instead.
+   *
+   * @throws IllegalArgumentException if values is empty
+   */
+  public static InList inList(Collection<?> values) {
+    Preconditions.checkArgument(values != null, "values must not be null");
+    return new InList(Lists.newArrayList(values));
+  }
+
   public StatementBuilder bind(Consumer<Statement> deferredBinding) {
     Preconditions.checkArgument(deferredBinding != null);
     deferredBindings.add(deferredBinding);
     return this;
   }
 
-  StatementBuilder sqlWithBindings(String s, List<Object> bindVals) {
+  /**
+   * Number of rows the driver should fetch per round trip.
+   */
+  public StatementBuilder fetchSize(int rows) {
+    Preconditions.checkArgument(rows >= 0, "fetchSize must be >= 0");
+    this.fetchSize = rows;
+    this.adaptiveFetchSize = false;
+    return this;
+  }
 
-    if (s == null) {
-      s = "";
-    }
+  /**
+   * Choose the fetch size from the width of the result rows instead of a fixed value.
+   *
+   * @see AdaptiveFetchSize
+   */
+  public StatementBuilder adaptiveFetchSize() {
+    this.fetchSize = null;
+    this.adaptiveFetchSize = true;
+    return this;
+  }
 
-    if (bindVals == null) {
-      bindVals = Lists.newArrayList();
-    }
+  public StatementBuilder maxRows(int rows) {
+    Preconditions.checkArgument(rows >= 0, "maxRows must be >= 0");
+    this.maxRows = rows;
+    return this;
+  }
 
-    List<Object> newList = Lists.newArrayList();
-    newList.addAll(bindVals);
-    bindVals = newList;
+  public StatementBuilder queryTimeout(Duration timeout) {
+    Preconditions.checkArgument(
+        timeout == null || !timeout.isNegative(), "queryTimeout must not be negative");
+    this.queryTimeout = timeout;
+    return this;
+  }
 
-    int expectedTotalParamCount = paramNames.size() + bindVals.size();
+  public StatementBuilder cursor(int resultSetType, int resultSetConcurrency) {
+    this.resultSetType = resultSetType;
+    this.resultSetConcurrency = resultSetConcurrency;
+    return this;
+  }
 
-    Matcher m = parsePattern.matcher(s);
-    if (m.matches()) {
-      String pre = m.group(1);
-      String paramName = m.group(2).trim();
-      String post = m.group(3);
+  public StatementBuilder forwardOnly() {
+    this.resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+    return this;
+  }
 
-      sqlWithBindings(pre, null);
-      if (bindVals.isEmpty()) {
-        addParam(paramName);
-      } else {
+  public StatementBuilder scrollable() {
+    this.resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE;
+    return this;
+  }
 
-        addParam(paramName, bindVals.removeFirst());
-      }
+  public StatementBuilder readOnly() {
+    this.resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
+    return this;
+  }
+
+  /**
+   * Bind IN lists with more than the given number of elements as a single array parameter
+   * instead of one placeholder per element. The parameter is rendered as {@code select unnest(?)},
+   * so {@code x in ({{list}})} stays valid SQL; this requires a driver that supports
+   * Connection.createArrayOf(), such as DuckDB.
+   */
+  public StatementBuilder arrayBindThreshold(int size) {
+    Preconditions.checkArgument(size >= 0, "arrayBindThreshold must be >= 0");
+    this.arrayBindThreshold = size;
+    return this;
+  }
 
-      sqlWithBindings(post, bindVals);
+  /**
+   * Prepares the SQL with the cursor type and statement options that have been set.
+   */
+  public PreparedStatement prepare(Connection c) throws SQLException {
+    PreparedStatement ps;
+    if (resultSetType == ResultSet.TYPE_FORWARD_ONLY
+        && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY) {
+      ps = c.prepareStatement(getSql());
     } else {
-      fragments.add(s);
+      ps = c.prepareStatement(getSql(), resultSetType, resultSetConcurrency);
+    }
+    applyOptions(ps);
+    return ps;
+  }
+
+  /**
+   * Identifies statements that can be reused for this builder: the final SQL plus any statement
+   * options that differ from the defaults.
+   */
+  String getStatementKey() {
+    String sql = getSql();
+    if (resultSetType == ResultSet.TYPE_FORWARD_ONLY
+        && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY
+        && fetchSize == null
+        && maxRows == null
+        && queryTimeout == null) {
+      return sql;
+    }
+    return String.format(
+        "%s/%s/%s/%s/%s:%s",
+        resultSetType, resultSetConcurrency, fetchSize, maxRows, queryTimeout, sql);
+  }
+
+  void applyOptions(Statement st) throws SQLException {
+    if (fetchSize != null) {
+      try {
+        st.setFetchSize(fetchSize);
+      } catch (SQLFeatureNotSupportedException e) {
+        // fetch size is only a hint
+      }
+    }
+    if (maxRows != null) {
+      st.setMaxRows(maxRows);
+    }
+    if (queryTimeout != null) {
+      long seconds = queryTimeout.toSeconds();
+      if (queryTimeout.toNanosPart() != 0) {
+        // JDBC timeouts are whole seconds; round up so that the timeout is never shorter than
+        // requested, and a sub-second timeout doesn't become "no timeout"
+        seconds++;
+      }
+      st.setQueryTimeout(Ints.saturatedCast(seconds));
+    }
+  }
+
+  StatementBuilder sqlWithBindings(String s, List<Object> bindVals) {
+
+    if (bindVals == null) {
+      bindVals = List.of();
+    }
+
+    ParsedSql parsed = ParsedSql.parse(s);
+
+    if (!bindVals.isEmpty() && bindVals.size() != parsed.getParamCount()) {
+      // if no positional parameters were provided, it is not a problem
+      // that there are unbound parameters. They may be bound at a later time.
+      // BUT, if positional parameters were supplied, they need to match
+      throw new DbException(String.format("expected %d bind values but got %d sql=<%s>",
+          parsed.getParamCount(), bindVals.size(), s));
     }
 
-    if (expectedTotalParamCount != paramNames.size()) {
-      if (bindVals.size() == 0) {
-        // if no positional parameters were provided, it is not a problem
-        // that there are unbound parameters. They may be bound at a later time.
+    templates.add(parsed);
+    List<String> lexedFragments = parsed.getFragments();
+    List<String> lexedParams = parsed.getParamNames();
+    for (int i = 0; i < lexedParams.size(); i++) {
+      fragments.add(lexedFragments.get(i));
+      if (bindVals.isEmpty()) {
+        addParam(lexedParams.get(i));
       } else {
-        // BUT, if positional parameters were supplied, they need to match
-        throw new DbException(String.format("expected %d bind values but got %d sql=<%s>",
-            expectedTotalParamCount - bindVals.size(), bindVals.size(), s));
+        addParam(lexedParams.get(i), bindVals.get(i));
       }
     }
+    fragments.add(lexedFragments.getLast());
 
     return this;
   }
 
+  static final String[] positionalKeys = new String[64];
+
+  static {
+    for (int i = 0; i < positionalKeys.length; i++) {
+      positionalKeys[i] = "_" + i;
+    }
+  }
+
   private String toKey(int index) {
-    return String.format("_%s", index);
+    return index < positionalKeys.length ? positionalKeys[index] : "_" + index;
   }
 
   private void addParam(String name) {
@@ -139,58 +305,179 @@ public class StatementBuilder {
 
   }
 
+  /**
+   * Identifies the statement independently of its bind values: the {{param}} template text, or the
+   * templates joined by spaces when sql() was called more than once.
+   */
+  public String getFingerprint() {
+    if (templates.size() == 1) {
+      return templates.getFirst().getTemplate();
+    }
+    StringBuilder sb = new StringBuilder();
+    for (ParsedSql template : templates) {
+      if (!sb.isEmpty()) {
+        sb.append(' ');
+      }
+      sb.append(template.getTemplate().trim());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The SQL to prepare. A parameter bound to an {@link InList} is expanded into one placeholder per
+   * element, with the count rounded up to a power of two so that lists of similar length share a
+   * statement.
+   *
+   * @see #placeholderCount(Collection)
+   */
   public String getSql() {
-    String sql = "";
+    if (!hasInListBindings()) {
+      if (templates.size() == 1) {
+        // the common case of a single template can reuse the SQL rendered when it was parsed
+        return templates.getFirst().getSql();
+      }
+      return render(fragments);
+    }
+    List<String> expanded = Lists.newArrayListWithCapacity(fragments.size());
+    int ordinal = 0;
+    for (ParsedSql template : templates) {
+      List<String> lexedFragments = template.getFragments();
+      for (int param = 0; param < template.getParamCount(); param++) {
+        ordinal++;
+        expanded.add(lexedFragments.get(param));
+        expanded.add(placeholders(getBinding(ordinal)));
+      }
+      expanded.add(lexedFragments.getLast());
+    }
+    return render(expanded);
+  }
+
+  boolean hasInListBindings() {
+    for (Object val : bindings.values()) {
+      if (val instanceof InList) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The value for the 1-based parameter ordinal: bound by name, or else by position.
+   */
+  Object getBinding(int ordinal) {
+    String paramName = paramNames.get(ordinal - 1);
+    Object val = bindings.get(paramName);
+    if (val == null && !bindings.containsKey(paramName)) {
+      val = bindings.get(toKey(ordinal));
+    }
+    return val;
+  }
+
+  /**
+   * The value bound to each parameter, in order.
+   */
+  List<Object> getBindValues() {
+    Object[] values = new Object[paramNames.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = getBinding(i + 1);
+    }
+    return Arrays.asList(values);
+  }
+
+  private String placeholders(Object val) {
+    if (!(val instanceof InList(List<?> values))) {
+      return "?";
+    }
+    if (isArrayBinding(values)) {
+      return "select unnest(?)";
+    }
+    return "?" + ", ?".repeat(placeholderCount(values) - 1);
+  }
+
+  private boolean isArrayBinding(List<?> values) {
+    return arrayBindThreshold != null
+        && values.size() > arrayBindThreshold
+        && BindPlan.sqlArrayType(values) != null;
+  }
+
+  /**
+   * Number of placeholders for an IN list: its size rounded up to a power of two. The extra
+   * placeholders repeat the last element, which doesn't change the result of IN or NOT IN.
+   */
+  static int placeholderCount(Collection<?> values) {
+    int size = values.size();
+    return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+  }
+
+  static String render(List<String> fragments) {
+    StringBuilder sql = new StringBuilder();
     for (String fragment : fragments) {
       boolean addBlank = true;
 
       fragment = fragment.trim();
-      if (sql.isBlank() || sql.endsWith(" ") || fragment.startsWith(" ")) {
+      if (sql.isEmpty() || endsWith(sql, ' ')) {
         addBlank = false;
       } else if (fragment.startsWith("?")) {
-        if (sql.endsWith("=") || sql.endsWith(",")) {
+        if (endsWith(sql, '=') || endsWith(sql, ',')) {
           addBlank = false;
         }
-      } else if (sql.endsWith("?")) {
-        if (fragment.startsWith(" ")) {
-
-        }
       }
 
       if (addBlank) {
-        sql += " ";
+        sql.append(' ');
       }
-      sql += fragment;
+      sql.append(fragment);
     }
-    return sql.trim();
+    return sql.toString().trim();
   }
 
-  public StatementBuilder bind(PreparedStatement ps) throws SQLException {
-    for (int i = 0; i < paramNames.size(); i++) {
-      int index = i + 1;
-      String paramName = paramNames.get(i);
-
-      Object val = null;
-
-      if (bindings.containsKey(paramName)) {
-        val = bindings.get(paramName);
-      } else {
-        val = bindings.get(toKey(index));
-      }
-
-      Object convertedVal = SqlUtil.toSqlBindType(val);
-
-      ps.setObject(index, convertedVal);
-
-      
-      // now apply and deferred bindings that might be set
-      for (Consumer<Statement> deferred : deferredBindings) {
+  private static boolean endsWith(StringBuilder sb, char c) {
+    return sb.length() > 0 && sb.charAt(sb.length() - 1) == c;
+  }
 
-        deferred.accept(ps);
+  public StatementBuilder bind(PreparedStatement ps) throws SQLException {
+    int ordinal = 0;
+    int index = 0;
+    for (ParsedSql template : templates) {
+      // each template binds its own parameters, so its plan sees the same value types every time
+      for (int param = 0; param < template.getParamCount(); param++) {
+        ordinal++;
+        Object val = getBinding(ordinal);
+        if (val instanceof InList(List<?> values)) {
+          index = bindInList(ps, template.bindPlan, param, index, values);
+        } else {
+          template.bindPlan.bind(ps, param, ++index, val);
+        }
       }
+    }
 
+    // deferred bindings run last so that they can override anything bound above
+    for (Consumer<Statement> deferred : deferredBindings) {
+      deferred.accept(ps);
     }
 
     return this;
   }
+
+  /**
+   * Binds the placeholders that getSql() rendered for an IN list, returning the last index used.
+   */
+  private int bindInList(PreparedStatement ps, BindPlan plan, int param, int index, List<?> values)
+      throws SQLException {
+    if (isArrayBinding(values)) {
+      ps.setObject(
+          ++index,
+          ps.getConnection().createArrayOf(BindPlan.sqlArrayType(values), values.toArray()));
+      return index;
+    }
+    Object last = null;
+    for (Object val : values) {
+      plan.bind(ps, param, ++index, val);
+      last = val;
+    }
+    for (int i = values.size(); i < placeholderCount(values); i++) {
+      plan.bind(ps, param, ++index, last);
+    }
+    return index;
+  }
 }
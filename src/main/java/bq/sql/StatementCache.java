@@ -0,0 +1,203 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Opt-in cache of open PreparedStatements, kept per connection as a bounded LRU keyed by the final
+ * SQL text and statement options.
+ *
+ * Statements are checked out for the duration of a single SqlTemplate call and returned by
+ * SqlCloser, so two callers never share a statement. Entries for a connection are dropped when
+ * SqlCloser physically closes it, and connections that are garbage collected take their entries
+ * with them.
+ */
+public class StatementCache {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final int DEFAULT_MAX_STATEMENTS_PER_CONNECTION = 64;
+
+  int maxStatementsPerConnection;
+
+  Cache<Connection, ConnectionStatements> connections = CacheBuilder.newBuilder().weakKeys().build();
+
+  LongAdder hits = new LongAdder();
+  LongAdder misses = new LongAdder();
+  LongAdder evictions = new LongAdder();
+
+  private StatementCache() {}
+
+  public static StatementCache create() {
+    return create(DEFAULT_MAX_STATEMENTS_PER_CONNECTION);
+  }
+
+  public static StatementCache create(int maxStatementsPerConnection) {
+    Preconditions.checkArgument(
+        maxStatementsPerConnection > 0, "maxStatementsPerConnection must be > 0");
+    StatementCache cache = new StatementCache();
+    cache.maxStatementsPerConnection = maxStatementsPerConnection;
+    return cache;
+  }
+
+  class ConnectionStatements {
+    List<PreparedStatement> evicted = Lists.newArrayList();
+    LinkedHashMap<String, PreparedStatement> idle =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > maxStatementsPerConnection) {
+              evicted.add(eldest.getValue());
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * The physical connection behind a wrapper such as a ConnectionPool proxy. Statements are cached
+   * against it, so that they survive the wrapper being closed and the connection being borrowed
+   * again.
+   */
+  static Connection physical(Connection c) {
+    try {
+      if (c.isWrapperFor(Connection.class)) {
+        Connection unwrapped = c.unwrap(Connection.class);
+        if (unwrapped != null) {
+          return unwrapped;
+        }
+      }
+    } catch (SQLException | RuntimeException e) {
+      logger.atFinest().log("cannot unwrap %s: %s", c, e);
+    }
+    return c;
+  }
+
+  private ConnectionStatements statements(Connection c) {
+    try {
+      return connections.get(physical(c), ConnectionStatements::new);
+    } catch (ExecutionException e) {
+      throw new DbException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns an idle statement prepared from the same SQL and options, or prepares a new one.
+   */
+  public PreparedStatement checkout(Connection c, StatementBuilder b) throws SQLException {
+    String key = b.getStatementKey();
+    ConnectionStatements cs = statements(c);
+    PreparedStatement ps;
+    synchronized (cs) {
+      ps = cs.idle.remove(key);
+    }
+    if (ps != null && !ps.isClosed()) {
+      hits.increment();
+      return ps;
+    }
+    misses.increment();
+    return b.prepare(c);
+  }
+
+  /**
+   * Makes a statement that was checked out available to the next caller.
+   */
+  public void release(Connection c, String key, PreparedStatement ps) throws SQLException {
+    if (ps.isClosed()) {
+      return;
+    }
+    ps.clearParameters();
+    ps.clearBatch();
+
+    List<PreparedStatement> toClose = Lists.newArrayList();
+    ConnectionStatements cs = statements(c);
+    synchronized (cs) {
+      PreparedStatement existing = cs.idle.putIfAbsent(key, ps);
+      if (existing != null) {
+        // another caller already returned a statement for the same SQL
+        toClose.add(ps);
+      }
+      toClose.addAll(cs.evicted);
+      evictions.add(cs.evicted.size());
+      cs.evicted.clear();
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * Closes and forgets all statements cached for the connection.
+   */
+  public void clear(Connection c) {
+    ConnectionStatements cs = connections.asMap().remove(physical(c));
+    if (cs == null) {
+      return;
+    }
+    List<PreparedStatement> toClose;
+    synchronized (cs) {
+      toClose = Lists.newArrayList(cs.idle.values());
+      cs.idle.clear();
+    }
+    closeAll(toClose);
+  }
+
+  public void clear() {
+    connections.asMap().keySet().forEach(this::clear);
+  }
+
+  private void closeAll(List<PreparedStatement> statements) {
+    for (PreparedStatement ps : statements) {
+      try {
+        ps.close();
+      } catch (SQLException | RuntimeException e) {
+        logger.atFine().withCause(e).log("problem closing cached statement");
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public double getHitRate() {
+    long h = getHitCount();
+    long total = h + getMissCount();
+    return total == 0 ? 1.0 : (double) h / total;
+  }
+
+  public long size() {
+    long size = 0;
+    for (ConnectionStatements cs : connections.asMap().values()) {
+      synchronized (cs) {
+        size += cs.idle.size();
+      }
+    }
+    return size;
+  }
+
+  public String toString() {
+    return String.format(
+        "StatementCache{hits=%d, misses=%d, evictions=%d, size=%d}",
+        getHitCount(), getMissCount(), getEvictionCount(), size());
+  }
+}
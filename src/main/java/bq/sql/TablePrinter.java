@@ -203,8 +203,8 @@ public class TablePrinter implements ResultSetProcessor<String> {
   }
 
   @Override
-  public <T> T process(Results rs) throws SQLException {
-    return (T) toString(rs);
+  public String process(Results rs) throws SQLException {
+    return toString(rs);
   
   }
 }
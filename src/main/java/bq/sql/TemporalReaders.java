@@ -0,0 +1,221 @@
+package bq.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Per-column readers for Results.getInstant(), getLocalDate() and getZonedDateTime().
+ *
+ * The first non-null value of a column decides how the rest of that column is read. If the driver
+ * can return the target type directly, the column is read that way. Otherwise the reader is
+ * specialized for the class the driver returned, using getTimestamp() for Timestamp columns. Each
+ * reader gives the same result as the generic conversions in Results. A value of an unexpected
+ * class falls back to those conversions.
+ */
+class TemporalReaders {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @FunctionalInterface
+  interface Reader<T> {
+    T read(ResultSet rs, int col) throws SQLException;
+  }
+
+  final Results results;
+  final ZoneId zone;
+  final int[] sqlTypes;
+  final Reader<?>[] instants;
+  final Reader<?>[] localDates;
+  final Reader<?>[] zonedDateTimes;
+
+  TemporalReaders(Results results) throws SQLException {
+    this.results = results;
+    this.zone = results.getSessionZone();
+    ResultSetMetaData md = results.getResultSet().getMetaData();
+    int count = md.getColumnCount();
+    this.sqlTypes = new int[count + 1];
+    for (int i = 1; i <= count; i++) {
+      sqlTypes[i] = md.getColumnType(i);
+    }
+    this.instants = new Reader<?>[count + 1];
+    this.localDates = new Reader<?>[count + 1];
+    this.zonedDateTimes = new Reader<?>[count + 1];
+  }
+
+  @SuppressWarnings("unchecked")
+  Instant instant(int col) throws SQLException {
+    ResultSet rs = results.getResultSet();
+    if (col < instants.length && instants[col] != null) {
+      return ((Reader<Instant>) instants[col]).read(rs, col);
+    }
+    Object first = rs.getObject(col);
+    if (first == null) {
+      return null;
+    }
+    Instant value = toInstant(first);
+    if (col < instants.length) {
+      instants[col] = instantReader(col, first, value);
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  LocalDate localDate(int col) throws SQLException {
+    ResultSet rs = results.getResultSet();
+    if (col < localDates.length && localDates[col] != null) {
+      return ((Reader<LocalDate>) localDates[col]).read(rs, col);
+    }
+    Object first = rs.getObject(col);
+    if (first == null) {
+      return null;
+    }
+    LocalDate value = toLocalDate(first);
+    if (col < localDates.length) {
+      localDates[col] = localDateReader(col, first, value);
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  ZonedDateTime zonedDateTime(int col) throws SQLException {
+    ResultSet rs = results.getResultSet();
+    if (col < zonedDateTimes.length && zonedDateTimes[col] != null) {
+      return ((Reader<ZonedDateTime>) zonedDateTimes[col]).read(rs, col);
+    }
+    Object first = rs.getObject(col);
+    if (first == null) {
+      return null;
+    }
+    ZonedDateTime value = toZonedDateTime(first);
+    if (col < zonedDateTimes.length) {
+      zonedDateTimes[col] = zonedDateTimeReader(first);
+    }
+    return value;
+  }
+
+  Instant toInstant(Object v) {
+    return results.toInstant(v, zone).orElse(null);
+  }
+
+  LocalDate toLocalDate(Object v) {
+    return Results.toLocalDate(v, zone).orElse(null);
+  }
+
+  ZonedDateTime toZonedDateTime(Object v) {
+    return results.toZonedDateTime(v, zone).orElse(null);
+  }
+
+  Reader<Instant> instantReader(int col, Object first, Instant expected) {
+    int type = sqlTypes[col];
+    if ((type == Types.TIMESTAMP || type == Types.TIMESTAMP_WITH_TIMEZONE)
+        && readsDirectly(col, Instant.class, expected)) {
+      return (rs, c) -> rs.getObject(c, Instant.class);
+    }
+    if (first instanceof Timestamp) {
+      return (rs, c) -> {
+        Timestamp ts = rs.getTimestamp(c);
+        return ts == null ? null : ts.toInstant();
+      };
+    }
+    if (first instanceof Instant) {
+      return typed(Instant.class, t -> t, this::toInstant);
+    }
+    if (first instanceof OffsetDateTime) {
+      return typed(OffsetDateTime.class, OffsetDateTime::toInstant, this::toInstant);
+    }
+    if (first instanceof ZonedDateTime) {
+      return typed(ZonedDateTime.class, ZonedDateTime::toInstant, this::toInstant);
+    }
+    if (first instanceof LocalDate) {
+      return typed(LocalDate.class, d -> d.atStartOfDay(zone).toInstant(), this::toInstant);
+    }
+    return generic(this::toInstant);
+  }
+
+  Reader<LocalDate> localDateReader(int col, Object first, LocalDate expected) {
+    if (sqlTypes[col] == Types.DATE && readsDirectly(col, LocalDate.class, expected)) {
+      return (rs, c) -> rs.getObject(c, LocalDate.class);
+    }
+    if (first instanceof LocalDate) {
+      return typed(LocalDate.class, d -> d, this::toLocalDate);
+    }
+    if (first instanceof java.sql.Date) {
+      return (rs, c) -> {
+        java.sql.Date d = rs.getDate(c);
+        return d == null ? null : d.toLocalDate();
+      };
+    }
+    if (first instanceof Timestamp) {
+      return (rs, c) -> {
+        Timestamp ts = rs.getTimestamp(c);
+        return ts == null ? null : ts.toLocalDateTime().toLocalDate();
+      };
+    }
+    return generic(this::toLocalDate);
+  }
+
+  Reader<ZonedDateTime> zonedDateTimeReader(Object first) {
+    if (first instanceof Timestamp) {
+      return (rs, c) -> {
+        Timestamp ts = rs.getTimestamp(c);
+        if (ts == null) {
+          return null;
+        }
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(ts.getTime()), zone);
+      };
+    }
+    if (first instanceof OffsetDateTime) {
+      return typed(OffsetDateTime.class, OffsetDateTime::toZonedDateTime, this::toZonedDateTime);
+    }
+    if (first instanceof Instant) {
+      return typed(Instant.class, t -> ZonedDateTime.ofInstant(t, zone), this::toZonedDateTime);
+    }
+    if (first instanceof LocalDate) {
+      return typed(LocalDate.class, d -> d.atStartOfDay(zone), this::toZonedDateTime);
+    }
+    return generic(this::toZonedDateTime);
+  }
+
+  /**
+   * True if getObject(col, type) works on this driver and agrees with the generic conversion for
+   * the current row.
+   */
+  private boolean readsDirectly(int col, Class<?> type, Object expected) {
+    try {
+      return Objects.equals(results.getResultSet().getObject(col, type), expected);
+    } catch (SQLException | RuntimeException e) {
+      logger.atFinest().log("getObject(%d, %s) not supported: %s", col, type.getSimpleName(), e);
+      return false;
+    }
+  }
+
+  private static <X, T> Reader<T> typed(
+      Class<X> type, Function<X, T> convert, Function<Object, T> fallback) {
+    return (rs, c) -> {
+      Object v = rs.getObject(c);
+      if (v == null) {
+        return null;
+      }
+      return type.isInstance(v) ? convert.apply(type.cast(v)) : fallback.apply(v);
+    };
+  }
+
+  private static <T> Reader<T> generic(Function<Object, T> convert) {
+    return (rs, c) -> {
+      Object v = rs.getObject(c);
+      return v == null ? null : convert.apply(v);
+    };
+  }
+}
@@ -0,0 +1,88 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Lists;
+
+import bq.util.Sleep;
+
+public class AsyncSqlTemplateTest {
+
+  Connection root;
+  ConnectionPool pool;
+  SqlTemplate template;
+
+  @Test
+  public void testBoundedConcurrency() {
+    AsyncSqlTemplate async = AsyncSqlTemplate.create(template, 3);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    List<CompletableFuture<List<Long>>> futures = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      int id = i;
+      futures.add(
+          async.queryAsync(
+              c -> c.sql("select id from test where id={{id}}", id),
+              rs -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Sleep.sleep(20);
+                inFlight.decrementAndGet();
+                return rs.getLong("id").get();
+              }));
+    }
+    CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+
+    for (int i = 0; i < futures.size(); i++) {
+      Assertions.assertThat(futures.get(i).join()).containsExactly((long) i);
+    }
+    Assertions.assertThat(maxInFlight.get()).isBetween(2, 3);
+    Assertions.assertThat(async.getInFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFailure() {
+    AsyncSqlTemplate async = AsyncSqlTemplate.create(template);
+
+    CompletableFuture<Integer> f = async.queryIntAsync(c -> c.sql("select * from no_such_table"));
+    Assertions.assertThatThrownBy(() -> f.get())
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(DbException.class);
+    Assertions.assertThat(async.executeUpdateAsync(c -> c.sql("insert into test values (5000)")).join())
+        .isEqualTo(1);
+    Assertions.assertThat(async.getInFlightCount()).isEqualTo(0);
+  }
+
+  Connection duplicate() {
+    try {
+      return root.unwrap(org.duckdb.DuckDBConnection.class).duplicate();
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    root = DriverManager.getConnection("jdbc:duckdb:");
+    pool = ConnectionPool.create(this::duplicate).maxSize(8);
+    template = SqlTemplate.create(pool);
+    template.execute("create table test as select range as id from range(100)");
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    pool.close();
+    root.close();
+  }
+}
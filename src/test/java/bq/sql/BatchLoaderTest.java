@@ -0,0 +1,84 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Test;
+
+public class BatchLoaderTest extends TestTableFixture {
+
+  record Person(String name, long age) {}
+
+  @Test
+  public void testCoalesce() {
+    BatchLoader<String, Person> loader =
+        BatchLoader.create(
+                template,
+                "select name, age from test where name in ({{names}})",
+                Person.class,
+                Person::name)
+            .maxDelay(Duration.ofMillis(100));
+
+    List<CompletableFuture<Optional<Person>>> futures = Lists.newArrayList();
+    for (String name : List.of("n1", "n3", "n3", "missing", "n4")) {
+      futures.add(loader.load(name));
+    }
+
+    Assertions.assertThat(futures.get(0).join()).contains(new Person("n1", 1));
+    Assertions.assertThat(futures.get(1).join()).contains(new Person("n3", 3));
+    Assertions.assertThat(futures.get(2)).isSameAs(futures.get(1));
+    Assertions.assertThat(futures.get(3).join()).isEmpty();
+    Assertions.assertThat(futures.get(4).join()).contains(new Person("n4", 4));
+    Assertions.assertThat(loader.getBatchCount()).isEqualTo(1);
+    Assertions.assertThat(loader.getKeyCount()).isEqualTo(4);
+
+    Assertions.assertThat(loader.get("n2")).contains(new Person("n2", 2));
+    Assertions.assertThat(loader.getBatchCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testMaxBatchSize() {
+    BatchLoader<Long, Person> loader =
+        BatchLoader.create(
+                template,
+                "select name, age from test where age in ({{ages}})",
+                Person.class,
+                Person::age)
+            .maxBatchSize(4)
+            .maxDelay(Duration.ofSeconds(10));
+
+    List<CompletableFuture<Optional<Person>>> futures = Lists.newArrayList();
+    for (long age = 0; age < 8; age++) {
+      futures.add(loader.load(age));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      Optional<Person> p = futures.get(i).join();
+      if (i < 5) {
+        Assertions.assertThat(p.get().age()).isEqualTo(i);
+      } else {
+        Assertions.assertThat(p).isEmpty();
+      }
+    }
+    Assertions.assertThat(loader.getBatchCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailure() {
+    BatchLoader<String, Person> loader =
+        BatchLoader.create(
+            template, "select name, age from nope where name in ({{names}})", Person.class, Person::name);
+    CompletableFuture<Optional<Person>> a = loader.load("a");
+    CompletableFuture<Optional<Person>> b = loader.load("b");
+    Assertions.assertThatThrownBy(a::join).hasCauseInstanceOf(DbException.class);
+    Assertions.assertThatThrownBy(b::join).hasCauseInstanceOf(DbException.class);
+    Assertions.assertThatThrownBy(() -> loader.get("c")).isInstanceOf(DbException.class);
+
+    Assertions.assertThatThrownBy(
+            () -> BatchLoader.create(template, "select * from test", Person.class, Person::name))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
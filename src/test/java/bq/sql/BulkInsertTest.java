@@ -0,0 +1,140 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+
+public class BulkInsertTest {
+
+  static FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final int ROWS = 10000;
+
+  Connection connection;
+  SqlTemplate template;
+
+  List<List<Object>> bars(int count) {
+    List<List<Object>> rows = Lists.newArrayListWithCapacity(count);
+    LocalDate d = LocalDate.of(2000, 1, 1);
+    for (int i = 0; i < count; i++) {
+      double px = 100 + i % 50;
+      rows.add(Lists.newArrayList(d.plusDays(i), px, px + 1, px - 1, px + 0.5, (long) i * 100));
+    }
+    return rows;
+  }
+
+  void createTable(String name) {
+    template.execute(
+        String.format(
+            "create table %s (date date, open double, high double, low double, close double, volume bigint)",
+            name));
+  }
+
+  @Test
+  public void testDetectDuckDb() {
+    Assertions.assertThat(BulkInsert.isDuckDb(connection)).isTrue();
+  }
+
+  @Test
+  public void testAppenderAndBatchThroughput() throws SQLException {
+    List<List<Object>> rows = bars(ROWS);
+
+    createTable("appender_bars");
+    Stopwatch sw = Stopwatch.createStarted();
+    long appended = template.bulkInsert("appender_bars", rows);
+    double appenderRate = ROWS / (sw.elapsed().toNanos() / 1e9);
+
+    createTable("batch_bars");
+    sw = Stopwatch.createStarted();
+    long batched = BulkInsert.insertBatch(connection, "batch_bars", rows, 1000);
+    double batchRate = ROWS / (sw.elapsed().toNanos() / 1e9);
+
+    logger.atInfo().log(
+        "appender: %.0f rows/sec  jdbc batch: %.0f rows/sec  (%.1fx)",
+        appenderRate, batchRate, appenderRate / batchRate);
+
+    Assertions.assertThat(appended).isEqualTo(ROWS);
+    Assertions.assertThat(batched).isEqualTo(ROWS);
+    for (String table : List.of("appender_bars", "batch_bars")) {
+      Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from " + table)))
+          .isEqualTo(ROWS);
+      Assertions.assertThat(
+              template.queryString(
+                  c -> c.sql("select max(date)::varchar || ' ' || sum(volume)::varchar from " + table)))
+          .isEqualTo(LocalDate.of(2000, 1, 1).plusDays(ROWS - 1) + " " + (long) ROWS * (ROWS - 1) * 50);
+    }
+  }
+
+  @Test
+  public void testTypesAndNulls() {
+    template.execute("create table test (name varchar, ts timestamp, n int, x double)");
+    Instant t = Instant.parse("2024-03-01T14:30:00Z");
+    List<List<Object>> rows = Lists.newArrayList();
+    rows.add(Lists.newArrayList("a", t, 1, 1.5));
+    rows.add(Lists.newArrayList(null, null, null, null));
+
+    template.bulkInsert("main.test", rows.stream());
+
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test where name is null and ts is null")))
+        .isEqualTo(1);
+    Assertions.assertThat(template.queryString(c -> c.sql("select ts::varchar from test where name='a'")))
+        .isEqualTo(
+            LocalDateTime.ofInstant(t, ZoneId.systemDefault()).toString().replace('T', ' ') + ":00");
+  }
+
+  @Test
+  public void testTimestampsMatchJdbcPath() throws SQLException {
+    TimeZone saved = TimeZone.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    try {
+      template.execute("create table appended (ts timestamp)");
+      template.execute("create table batched (ts timestamp)");
+      List<List<Object>> rows = Lists.newArrayList();
+      rows.add(Lists.newArrayList(Instant.EPOCH));
+      rows.add(Lists.newArrayList(Instant.EPOCH.atZone(ZoneId.of("Asia/Tokyo"))));
+      rows.add(Lists.newArrayList(Timestamp.from(Instant.EPOCH)));
+
+      template.bulkInsert("appended", rows);
+      BulkInsert.insertBatch(connection, "batched", rows, 10);
+
+      List<String> appended =
+          template.query(
+              c -> c.sql("select ts::varchar as ts from appended"), r -> r.getString("ts").get());
+      Assertions.assertThat(appended).containsOnly("1969-12-31 19:00:00");
+      Assertions.assertThat(
+              template.query(
+                  c -> c.sql("select ts::varchar as ts from batched"), r -> r.getString("ts").get()))
+          .isEqualTo(appended);
+    } finally {
+      TimeZone.setDefault(saved);
+    }
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    connection = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(Suppliers.ofInstance(connection));
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    connection.close();
+  }
+}
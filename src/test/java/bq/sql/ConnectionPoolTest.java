@@ -0,0 +1,156 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Lists;
+
+public class ConnectionPoolTest {
+
+  Connection root;
+
+  Connection duplicate() {
+    try {
+      return root.unwrap(org.duckdb.DuckDBConnection.class).duplicate();
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  @Test
+  public void testBorrowAndReturn() throws SQLException {
+    try (ConnectionPool pool = ConnectionPool.create(this::duplicate).maxSize(2)) {
+
+      Connection c1 = pool.get();
+      Connection c2 = pool.get();
+      Assertions.assertThat(pool.getActiveCount()).isEqualTo(2);
+      Assertions.assertThat(pool.getSaturation()).isEqualTo(1.0);
+
+      Assertions.assertThat(c1.isClosed()).isFalse();
+      c1.close();
+      c1.close();
+      Assertions.assertThat(c1.isClosed()).isTrue();
+      Assertions.assertThat(pool.getActiveCount()).isEqualTo(1);
+      Assertions.assertThat(pool.getIdleCount()).isEqualTo(1);
+      Assertions.assertThatThrownBy(() -> c1.createStatement()).isInstanceOf(SQLException.class);
+
+      Connection c3 = pool.get();
+      Assertions.assertThat(c3).isNotSameAs(c1);
+      Assertions.assertThat(c3.unwrap(Connection.class)).isSameAs(c1.unwrap(Connection.class));
+      Assertions.assertThat(c3.isClosed()).isFalse();
+      // a handle from an earlier borrow stays dead once the connection is lent again
+      Assertions.assertThat(c1.isClosed()).isTrue();
+      Assertions.assertThatThrownBy(() -> c1.createStatement()).isInstanceOf(SQLException.class);
+      c1.close();
+      Assertions.assertThat(pool.getActiveCount()).isEqualTo(2);
+      Assertions.assertThat(pool.getCreatedCount()).isEqualTo(2);
+      Assertions.assertThat(c3.unwrap(org.duckdb.DuckDBConnection.class)).isNotNull();
+
+      c2.close();
+      c3.close();
+      Assertions.assertThat(pool.getIdleCount()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testAcquireTimeout() throws SQLException {
+    try (ConnectionPool pool =
+        ConnectionPool.create(this::duplicate).maxSize(1).acquireTimeout(Duration.ofMillis(50))) {
+
+      Connection c = pool.get();
+      Assertions.assertThatThrownBy(() -> pool.get()).isInstanceOf(DbException.class);
+      Assertions.assertThat(pool.getTimeoutCount()).isEqualTo(1);
+      Assertions.assertThat(pool.getWaitCount()).isEqualTo(1);
+      Assertions.assertThat(pool.getMaxWaitTime()).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+      c.close();
+
+      pool.get().close();
+      Assertions.assertThat(pool.getTotalCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testValidationAndEviction() throws SQLException {
+    try (ConnectionPool pool =
+        ConnectionPool.create(this::duplicate).maxSize(4).minSize(1).idleTimeout(Duration.ZERO)) {
+
+      pool.warmUp();
+      Assertions.assertThat(pool.getIdleCount()).isEqualTo(1);
+
+      Connection c1 = pool.get();
+      Connection c2 = pool.get();
+      c1.unwrap(org.duckdb.DuckDBConnection.class).close();
+      c1.close();
+      Assertions.assertThat(pool.getIdleCount()).isEqualTo(0);
+      Assertions.assertThat(pool.getDestroyedCount()).isEqualTo(1);
+
+      c2.close();
+      // idle timeout of zero evicts everything above minSize
+      Assertions.assertThat(pool.getTotalCount()).isEqualTo(1);
+      Assertions.assertThat(pool.getIdleCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testStatementCache() throws SQLException {
+    try (ConnectionPool pool = ConnectionPool.create(this::duplicate).maxSize(1)) {
+      StatementCache cache = StatementCache.create();
+      SqlTemplate template = SqlTemplate.create(pool).withStatementCache(cache);
+
+      for (int i = 0; i < 3; i++) {
+        int id = i;
+        Assertions.assertThat(template.queryInt(c -> c.sql("select {{id}}", id))).isEqualTo(i);
+      }
+      // statements are cached against the physical connection, so they outlive each borrow
+      Assertions.assertThat(cache.getMissCount()).isEqualTo(1);
+      Assertions.assertThat(cache.getHitCount()).isEqualTo(2);
+      Assertions.assertThat(cache.size()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testVirtualThreads() throws Exception {
+    try (ConnectionPool pool = ConnectionPool.create(this::duplicate).maxSize(4)) {
+      SqlTemplate template = SqlTemplate.create(pool);
+      template.execute("create table test as select range as id from range(1000)");
+
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        List<Future<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 200; i++) {
+          int id = i;
+          futures.add(
+              executor.submit(
+                  () -> template.queryInt(c -> c.sql("select id from test where id={{id}}", id))));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+          Assertions.assertThat(futures.get(i).get()).isEqualTo(i);
+        }
+      }
+      Assertions.assertThat(pool.getPeakActiveCount()).isLessThanOrEqualTo(4);
+      Assertions.assertThat(pool.getCreatedCount()).isLessThanOrEqualTo(4);
+      Assertions.assertThat(pool.getActiveCount()).isEqualTo(0);
+      Assertions.assertThat(pool.getAcquireCount()).isEqualTo(201);
+    }
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    root = DriverManager.getConnection("jdbc:duckdb:");
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    root.close();
+  }
+}
@@ -0,0 +1,97 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FrameReaderTest {
+
+  Connection c;
+  SqlTemplate template;
+
+  @Test
+  public void testRead() {
+    template.execute(
+        "create table bars as select date '2024-01-01' + range::int as date, 'AAPL' as ticker, 100.0 + range as close, range * 1000 as volume, range % 2 = 0 as up from range(1000)");
+    template.execute("insert into bars values (null, 'MSFT', null, null, null)");
+
+    Frame f =
+        template.queryResult(
+            b -> b.sql("select * from bars order by date nulls last"),
+            FrameReader.create().initialCapacity(4));
+
+    Assertions.assertThat(f.getRowCount()).isEqualTo(1001);
+    Assertions.assertThat(f.getColumnNames()).containsExactly("date", "ticker", "close", "volume", "up");
+    Assertions.assertThat(f.column("CLOSE")).isInstanceOf(Frame.DoubleColumn.class);
+    Assertions.assertThat(f.column("volume")).isInstanceOf(Frame.LongColumn.class);
+    Assertions.assertThat(f.column("date")).isInstanceOf(Frame.TimestampColumn.class);
+
+    double[] close = f.getDoubles("close");
+    Assertions.assertThat(close).hasSize(1001);
+    Assertions.assertThat(close[999]).isEqualTo(1099.0);
+    Assertions.assertThat(close[1000]).isNaN();
+    Assertions.assertThat(f.column("close").isNull(1000)).isTrue();
+    Assertions.assertThat(f.column("close").getNullCount()).isEqualTo(1);
+
+    Assertions.assertThat(f.getLongs("volume")).hasSize(1001).startsWith(0, 1000, 2000);
+    Assertions.assertThat(f.getDoubles("volume")[2]).isEqualTo(2000.0);
+    Assertions.assertThat(f.getLongs("up")).startsWith(1, 0, 1);
+
+    long[] dates = f.getEpochMillis("date");
+    Assertions.assertThat(dates[1])
+        .isEqualTo(LocalDate.of(2024, 1, 2).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+    Assertions.assertThat(f.timestampColumn("date").getInstant(1000)).isNull();
+
+    Frame.StringColumn ticker = f.stringColumn("ticker");
+    Assertions.assertThat(ticker.getDictionary()).containsExactly("AAPL", "MSFT");
+    Assertions.assertThat(ticker.getCodes()).hasSize(1001);
+    Assertions.assertThat(ticker.getString(1000)).isEqualTo("MSFT");
+
+    Assertions.assertThatThrownBy(() -> f.column("nope")).isInstanceOf(IllegalArgumentException.class);
+    Assertions.assertThatThrownBy(() -> f.getEpochMillis("close"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testTimestampsAndNullStrings() {
+    Frame f =
+        template.queryResult(
+            b ->
+                b.sql(
+                    "select timestamp '2024-03-01 12:30:00' as ts, null::varchar as s union all select null, 'x'"),
+            FrameReader.create());
+
+    Assertions.assertThat(f.getRowCount()).isEqualTo(2);
+    Assertions.assertThat(f.timestampColumn("ts").getInstant(0))
+        .isEqualTo(Instant.parse("2024-03-01T12:30:00Z"));
+    Assertions.assertThat(f.column("ts").isNull(1)).isTrue();
+    Assertions.assertThat(f.stringColumn("s").getCodes()).containsExactly(-1, 0);
+    Assertions.assertThat(f.column("s").get(1)).isEqualTo("x");
+  }
+
+  @Test
+  public void testEmpty() {
+    Frame f = template.queryResult(b -> b.sql("select 1.5::double as x where false"), FrameReader.create());
+    Assertions.assertThat(f.getRowCount()).isEqualTo(0);
+    Assertions.assertThat(f.getDoubles("x")).isEmpty();
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    c.close();
+  }
+}
@@ -0,0 +1,91 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Instant;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OffHeapFrameReaderTest {
+
+  Connection c;
+  SqlTemplate template;
+
+  @Test
+  public void testRead() {
+    int rows = OffHeapFrame.CHUNK_ROWS * 2 + 10;
+    template.execute(
+        String.format(
+            "create table bars as select timestamp '2024-01-01' + to_seconds(range) as ts, case when range %% 2 = 0 then 'AAPL' else 'MSFT' end as ticker, range * 0.5 as close, range as volume from range(%d)",
+            rows));
+    template.execute("insert into bars values (null, null, null, null)");
+
+    long before = OffHeapFrame.getTotalAllocatedBytes();
+    OffHeapFrame f;
+    try (OffHeapFrame frame =
+        template.queryResult(
+            b -> b.sql("select ts, ticker, close::double as close, volume from bars order by ts nulls last"),
+            OffHeapFrameReader.create())) {
+      f = frame;
+      Assertions.assertThat(f.getRowCount()).isEqualTo(rows + 1);
+      Assertions.assertThat(f.getColumnNames()).containsExactly("ts", "ticker", "close", "volume");
+      // 3 chunks of 8-byte columns x3 plus 3 chunks of 4-byte codes
+      Assertions.assertThat(f.getAllocatedBytes())
+          .isEqualTo(3L * OffHeapFrame.CHUNK_ROWS * (8 + 4 + 8 + 8));
+      Assertions.assertThat(OffHeapFrame.getTotalAllocatedBytes() - before)
+          .isEqualTo(f.getAllocatedBytes());
+
+      OffHeapFrame.Column close = f.column("CLOSE");
+      OffHeapFrame.Column volume = f.column("volume");
+      int last = rows - 1;
+      Assertions.assertThat(close.getDouble(last)).isEqualTo(last * 0.5);
+      Assertions.assertThat(volume.getLong(OffHeapFrame.CHUNK_ROWS + 1))
+          .isEqualTo(OffHeapFrame.CHUNK_ROWS + 1);
+      Assertions.assertThat(volume.getDouble(3)).isEqualTo(3.0);
+      Assertions.assertThat(f.getString(1, 1)).isEqualTo("MSFT");
+      Assertions.assertThat(f.column("ticker").getDictionary()).containsExactly("AAPL", "MSFT");
+      Assertions.assertThat(f.column("ts").getInstant(60))
+          .isEqualTo(Instant.parse("2024-01-01T00:01:00Z"));
+
+      Assertions.assertThat(f.isNull(rows, 0)).isTrue();
+      Assertions.assertThat(close.getDouble(rows)).isNaN();
+      Assertions.assertThat(f.getString(rows, 1)).isNull();
+      Assertions.assertThat(volume.get(rows)).isNull();
+      Assertions.assertThat(f.isNull(rows - 1, 3)).isFalse();
+
+      Assertions.assertThatThrownBy(() -> f.column("ticker").getLong(0))
+          .isInstanceOf(IllegalStateException.class);
+    }
+
+    Assertions.assertThat(f.isClosed()).isTrue();
+    Assertions.assertThat(OffHeapFrame.invokeCleaner.get()).isNotNull();
+    Assertions.assertThat(OffHeapFrame.getTotalAllocatedBytes()).isEqualTo(before);
+    Assertions.assertThatThrownBy(() -> f.column("close")).isInstanceOf(IllegalStateException.class);
+    f.close();
+  }
+
+  @Test
+  public void testEmpty() {
+    try (OffHeapFrame f =
+        template.queryResult(
+            b -> b.sql("select 1.5::double as x where false"), OffHeapFrameReader.create())) {
+      Assertions.assertThat(f.getRowCount()).isEqualTo(0);
+      Assertions.assertThat(f.getAllocatedBytes()).isEqualTo(0);
+    }
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    c.close();
+  }
+}
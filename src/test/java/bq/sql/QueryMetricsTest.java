@@ -0,0 +1,72 @@
+package bq.sql;
+
+import java.time.Duration;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import bq.sql.QueryListener.Phase;
+import bq.sql.QueryMetrics.Histogram;
+
+public class QueryMetricsTest extends TestTableFixture {
+
+  QueryMetrics metrics = QueryMetrics.create();
+
+  @Test
+  public void testMetrics() {
+    template.withQueryListener(metrics);
+    String sql = "select * from test where age >= {{age}}";
+    for (int i = 0; i < 3; i++) {
+      int age = i;
+      template.query(b -> b.sql(sql, age), r -> r.getString("name"));
+    }
+    try (var s = template.stream(b -> b.sql(sql, 0), r -> r.getString("name"))) {
+      Assertions.assertThat(s.count()).isEqualTo(5);
+    }
+    Assertions.assertThatThrownBy(() -> template.query(b -> b.sql(sql, "x"), r -> 1))
+        .isInstanceOf(DbException.class);
+    Assertions.assertThat(template.executeUpdate("update test set age = age + 1")).isEqualTo(5);
+
+    QueryMetrics.Snapshot s = metrics.getSnapshot(sql).get();
+    Assertions.assertThat(s.count()).isEqualTo(5);
+    Assertions.assertThat(s.failures()).isEqualTo(1);
+    Assertions.assertThat(s.rows()).isEqualTo(5 + 4 + 3 + 5);
+    Assertions.assertThat(s.phases().get(Phase.ACQUIRE).count()).isEqualTo(5);
+    Assertions.assertThat(s.phases().get(Phase.FETCH).count()).isEqualTo(4);
+    Assertions.assertThat(s.phases().get(Phase.CLOSE).count()).isEqualTo(4);
+    Assertions.assertThat(s.total().p50()).isPositive();
+    Assertions.assertThat(s.total().p99()).isGreaterThanOrEqualTo(s.total().p50());
+    Assertions.assertThat(s.total().max()).isGreaterThanOrEqualTo(s.total().p99());
+
+    Assertions.assertThat(metrics.getSnapshot("update test set age = age + 1").get().rows())
+        .isEqualTo(5);
+
+    template.withQueryListener(null);
+    template.query(b -> b.sql(sql, 0), r -> 1);
+    Assertions.assertThat(metrics.getSnapshot(sql).get().count()).isEqualTo(5);
+  }
+
+  @Test
+  public void testHistogram() {
+    Histogram h = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      h.record(Duration.ofMillis(i).toNanos());
+    }
+    QueryMetrics.Latency latency = h.snapshot();
+    Assertions.assertThat(latency.count()).isEqualTo(100);
+    Assertions.assertThat(latency.p50().toNanos())
+        .isBetween(Duration.ofMillis(50).toNanos(), Duration.ofMillis(50).toNanos() * 9 / 8);
+    Assertions.assertThat(latency.p99().toNanos())
+        .isBetween(Duration.ofMillis(99).toNanos(), Duration.ofMillis(100).toNanos());
+    Assertions.assertThat(latency.max()).isEqualTo(Duration.ofMillis(100));
+
+    for (long v : new long[] {0, 15, 16, 17, 31, 1_000_000, Long.MAX_VALUE}) {
+      int index = Histogram.index(v);
+      Assertions.assertThat(Histogram.upperBound(index)).isGreaterThanOrEqualTo(v);
+      if (index > 0) {
+        Assertions.assertThat(Histogram.upperBound(index - 1)).isLessThan(v);
+      }
+    }
+    Assertions.assertThat(Histogram.index(Long.MAX_VALUE)).isEqualTo(Histogram.BUCKETS - 1);
+  }
+}
@@ -0,0 +1,132 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResultCacheTest extends TestTableFixture {
+
+  ResultCache cache = ResultCache.create();
+
+  static final RowMapper<String> NAME = r -> r.getString("name").orElse(null);
+
+  List<String> names(int age) {
+    return template.query(b -> b.sql("select name from test where age >= {{age}} order by age", age), NAME);
+  }
+
+  @Test
+  public void testCache() {
+    template.withResultCache(cache);
+
+    List<String> first = names(3);
+    Assertions.assertThat(first).containsExactly("n3", "n4");
+    Assertions.assertThat(names(3)).isSameAs(first);
+    Assertions.assertThat(names(4)).containsExactly("n4");
+    Assertions.assertThat(cache.getStats().hitCount()).isEqualTo(1);
+    Assertions.assertThat(cache.getStats().missCount()).isEqualTo(2);
+    Assertions.assertThatThrownBy(() -> first.add("x"))
+        .isInstanceOf(UnsupportedOperationException.class);
+
+    // writes to other tables leave entries alone
+    template.execute("create table other (x int)");
+    Assertions.assertThat(cache.getInvalidationCount()).isEqualTo(0);
+    template.executeUpdate("insert into other values (1)");
+    Assertions.assertThat(names(3)).isSameAs(first);
+
+    template.executeUpdate("insert into main.test values ('n5', 5)");
+    List<String> second = names(3);
+    Assertions.assertThat(second).containsExactly("n3", "n4", "n5");
+    Assertions.assertThat(cache.getInvalidationCount()).isEqualTo(1);
+
+    template.execute("checkpoint");
+    Assertions.assertThat(names(3)).isSameAs(second);
+
+    // a statement without known targets invalidates everything
+    template.execute("create sequence seq");
+    Assertions.assertThat(names(3)).isNotSameAs(second).isEqualTo(second);
+    Assertions.assertThat(cache.getInvalidationCount()).isEqualTo(2);
+
+    // reads inside a transaction bypass the cache; commit invalidates
+    long misses = cache.getStats().missCount();
+    template.inTransaction(
+        () -> {
+          template.executeUpdate("delete from test where age = 5");
+          Assertions.assertThat(names(3)).containsExactly("n3", "n4");
+        });
+    Assertions.assertThat(cache.getStats().missCount()).isEqualTo(misses);
+    Assertions.assertThat(names(3)).containsExactly("n3", "n4");
+
+    long invalidations = cache.getInvalidationCount();
+    cache.invalidate("Test");
+    Assertions.assertThat(names(3)).containsExactly("n3", "n4");
+    Assertions.assertThat(cache.getInvalidationCount()).isEqualTo(invalidations + 1);
+  }
+
+  @Test
+  public void testViewsAndTableFunctions() {
+    template.withResultCache(cache);
+    template.execute("create view adults as select * from test where age >= 2");
+    template.execute("create view older as select * from adults where age >= 3");
+
+    RowMapper<Long> count = r -> r.getLong(1).orElse(null);
+    Assertions.assertThat(template.query(b -> b.sql("select count(*) from older"), count))
+        .containsExactly(2L);
+    Assertions.assertThat(template.query(b -> b.sql("select count(*) from older"), count))
+        .containsExactly(2L);
+    Assertions.assertThat(cache.getStats().hitCount()).isEqualTo(1);
+
+    // a write to the base table reaches entries read through views on views
+    template.executeUpdate("insert into test values ('n9', 9)");
+    Assertions.assertThat(template.query(b -> b.sql("select count(*) from older"), count))
+        .containsExactly(3L);
+
+    // table functions are never cached
+    template.execute("create view numbers as select * from range(3)");
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertThat(template.query(b -> b.sql("select count(*) from range(4)"), count))
+          .containsExactly(4L);
+      Assertions.assertThat(template.query(b -> b.sql("select count(*) from numbers"), count))
+          .containsExactly(3L);
+    }
+    Assertions.assertThat(cache.getUncacheableCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testWeightAndTtl() throws InterruptedException {
+    ResultCache small = ResultCache.create(Duration.ofMillis(200), 4);
+    template.withResultCache(small);
+    names(0);
+    Assertions.assertThat(small.size()).isEqualTo(0);
+    names(3);
+    Assertions.assertThat(small.size()).isEqualTo(1);
+    Thread.sleep(250);
+    names(3);
+    Assertions.assertThat(small.getStats().hitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTables() {
+    Assertions.assertThat(
+            SqlTables.readTables(
+                "select * from main.Bars b, symbols as s join \"Quotes\" q on b.x=q.x, (select 1 from t2) x where y in (select z from t3)"))
+        .containsExactlyInAnyOrder("bars", "quotes", "symbols", "t2", "t3");
+    Assertions.assertThat(SqlTables.readTables("select * from range(5) -- from comment"))
+        .containsExactly(SqlTables.TABLE_FUNCTION);
+    Assertions.assertThat(SqlTables.createdView("create or replace temp view v as select * from t"))
+        .isEqualTo("v");
+    Assertions.assertThat(SqlTables.createdView("create table v as select * from t")).isNull();
+    Assertions.assertThat(SqlTables.writtenTables("select 'update x' as \"update\" from t")).isEmpty();
+    Assertions.assertThat(SqlTables.writtenTables("update t set a = 1")).containsExactly("t");
+    Assertions.assertThat(SqlTables.writtenTables("insert or replace into s.t select * from u"))
+        .containsExactly("t");
+    Assertions.assertThat(SqlTables.writtenTables("create or replace table t as select 1"))
+        .containsExactly("t");
+    Assertions.assertThat(SqlTables.writtenTables("drop table if exists t")).containsExactly("t");
+    Assertions.assertThat(SqlTables.writtenTables("with x as (select 1) delete from t"))
+        .containsExactly("t");
+    Assertions.assertThat(SqlTables.writtenTables("create index i on t(a)")).isEqualTo(SqlTables.ALL);
+    Assertions.assertThat(SqlTables.writtenTables("attach 'x.db'")).isEqualTo(SqlTables.ALL);
+  }
+}
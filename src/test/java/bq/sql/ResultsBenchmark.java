@@ -0,0 +1,128 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares reading OHLCV rows through the Optional accessors with the primitive ones, and a
+ * hand-written mapper with one from RowMappers. Scores are per row; run main() to get
+ * gc.alloc.rate.norm, the bytes allocated per row, for each path.
+ *
+ * Every path includes the allocation done by the driver itself, so the difference between two
+ * paths is what the accessors or mappers cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultsBenchmark {
+
+  static final int ROWS = 100_000;
+
+  Connection c;
+  SqlTemplate template;
+
+  @Setup
+  public void setup() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+    template.execute(
+        String.format(
+            "create table ohlcv as select range as ts, random() as open, random() as high, random() as low, case when range %% 100 = 0 then null else random() end as close, range * 10 as volume from range(%d)",
+            ROWS));
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException {
+    c.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void optional(Blackhole bh) {
+    template.queryResult(
+        b -> b.sql("select open, high, low, close, volume from ohlcv"),
+        rs -> {
+          while (rs.next()) {
+            bh.consume(rs.getDouble(1).orElse(Double.NaN));
+            bh.consume(rs.getDouble(2).orElse(Double.NaN));
+            bh.consume(rs.getDouble(3).orElse(Double.NaN));
+            bh.consume(rs.getDouble(4).orElse(Double.NaN));
+            bh.consume(rs.getLong(5).orElse(0L));
+          }
+          return null;
+        });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void primitive(Blackhole bh) {
+    template.queryResult(
+        b -> b.sql("select open, high, low, close, volume from ohlcv"),
+        rs -> {
+          while (rs.next()) {
+            bh.consume(rs.getDoubleOrNaN(1));
+            bh.consume(rs.getDoubleOrNaN(2));
+            bh.consume(rs.getDoubleOrNaN(3));
+            bh.consume(rs.getDoubleOrNaN(4));
+            bh.consume(rs.getLongOr(5, 0L));
+          }
+          return null;
+        });
+  }
+
+  record Bar(double open, double high, double low, double close, long volume) {}
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void handWrittenMapper(Blackhole bh) {
+    bh.consume(
+        template.query(
+            b -> b.sql("select open, high, low, close, volume from ohlcv"),
+            rs ->
+                new Bar(
+                    rs.getDoubleOrNaN(1),
+                    rs.getDoubleOrNaN(2),
+                    rs.getDoubleOrNaN(3),
+                    rs.getDoubleOrNaN(4),
+                    rs.getLongOr(5, 0L))));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void generatedMapper(Blackhole bh) {
+    bh.consume(
+        template.query(b -> b.sql("select open, high, low, close, volume from ohlcv"), Bar.class));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(ResultsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
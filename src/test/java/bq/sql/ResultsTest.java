@@ -0,0 +1,154 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ResultsTest {
+
+  Connection c;
+  SqlTemplate template;
+
+  @Test
+  public void testColumnIndex() {
+    ColumnIndex ci = ColumnIndex.create("date", "Open", "high", "low", "close", "volume", "OPEN");
+
+    Assertions.assertThat(ci.size()).isEqualTo(6);
+    Assertions.assertThat(ci.get("date")).isEqualTo(1);
+    Assertions.assertThat(ci.get("open")).isEqualTo(2);
+    Assertions.assertThat(ci.get("CLOSE")).isEqualTo(5);
+    Assertions.assertThat(ci.get("Volume")).isEqualTo(6);
+    Assertions.assertThat(ci.get("adj_close")).isEqualTo(ColumnIndex.NOT_FOUND);
+
+    String[] many = new String[500];
+    for (int i = 0; i < many.length; i++) {
+      many[i] = "c" + i;
+    }
+    ci = ColumnIndex.create(many);
+    for (int i = 0; i < many.length; i++) {
+      Assertions.assertThat(ci.get("C" + i)).isEqualTo(i + 1);
+    }
+    Assertions.assertThat(ColumnIndex.create().get("x")).isEqualTo(ColumnIndex.NOT_FOUND);
+  }
+
+  @Test
+  public void testTypedAccessors() {
+    template.execute(
+        "create table prices as select date '2024-01-02' + range::int as date, 100.0 + range as close, range as volume, range % 2 = 0 as up, 'A' as ticker from range(3)");
+    template.execute("insert into prices values (null, null, null, null, null)");
+
+    List<String> rows =
+        template.query(
+            c -> c.sql("select date, close, volume, up, ticker from prices order by date"),
+            rs -> {
+              Assertions.assertThat(rs.getDouble(2)).isEqualTo(rs.getDouble("close"));
+              Assertions.assertThat(rs.getLong(3)).isEqualTo(rs.getLong("VOLUME"));
+              Assertions.assertThat(rs.getInt(3)).isEqualTo(rs.getInt("volume"));
+              Assertions.assertThat(rs.getBoolean(4)).isEqualTo(rs.getBoolean("up"));
+              Assertions.assertThat(rs.getBigDecimal(2)).isEqualTo(rs.getBigDecimal("close"));
+              Assertions.assertThat(rs.getLocalDate(1)).isEqualTo(rs.getLocalDate("date"));
+              Assertions.assertThat(rs.getInstant(1)).isEqualTo(rs.getInstant("date"));
+              return rs.getLocalDate(1).map(LocalDate::toString).orElse("null")
+                  + " "
+                  + rs.getString(5).orElse("null");
+            });
+    Assertions.assertThat(rows)
+        .containsExactly("2024-01-02 A", "2024-01-03 A", "2024-01-04 A", "null null");
+
+    Assertions.assertThatThrownBy(
+            () -> template.query(c -> c.sql("select 1 as x"), rs -> rs.getInt("y")))
+        .isInstanceOf(DbException.class);
+  }
+
+  @Test
+  public void testColumnHandle() {
+    template.execute("create table prices as select range as id, range * 1.5 as close from range(5)");
+
+    Results.Column[] close = new Results.Column[1];
+    List<Double> values =
+        template.query(
+            c -> c.sql("select id, close from prices order by id"),
+            rs -> {
+              if (close[0] == null) {
+                close[0] = rs.column("Close");
+              }
+              return close[0].getDouble().get();
+            });
+
+    Assertions.assertThat(values).containsExactly(0.0, 1.5, 3.0, 4.5, 6.0);
+    Assertions.assertThat(close[0].getIndex()).isEqualTo(2);
+    Assertions.assertThat(close[0].getName()).isEqualTo("Close");
+  }
+
+  @Test
+  public void testPrimitiveAccessors() {
+    template.execute("create table t (d double, l bigint, i int, b boolean)");
+    template.execute("insert into t values (1.5, 2, 3, true), (null, null, null, null)");
+
+    List<String> rows =
+        template.query(
+            c -> c.sql("select d, l, i, b from t order by d nulls last"),
+            rs -> {
+              Results.Column d = rs.column("d");
+              String s =
+                  rs.getDoubleOrNaN("d")
+                      + " "
+                      + rs.getLongOr(2, -1L)
+                      + " "
+                      + rs.getIntOr("i", -1)
+                      + " "
+                      + rs.getBooleanOr(4, false);
+              Assertions.assertThat(rs.wasNull()).isEqualTo(rs.isNull("b"));
+              Assertions.assertThat(d.isNull()).isEqualTo(Double.isNaN(d.getDoubleOrNaN()));
+              Assertions.assertThat(d.getDoubleOr(0)).isEqualTo(rs.getDouble(1).orElse(0d));
+              return s;
+            });
+    Assertions.assertThat(rows).containsExactly("1.5 2 3 true", "NaN -1 -1 false");
+  }
+
+  @Test
+  public void testTemporalReaders() {
+    template.execute("create table t (d date, ts timestamp, tz timestamptz)");
+    template.execute(
+        "insert into t values (null, null, null), ('2024-01-02', '2024-01-02 09:30:00', '2024-01-02 14:30:00+00'), ('2024-01-03', '2024-01-03 16:00:00.123', '2024-01-03 21:00:00+00')");
+
+    int rows =
+        template.queryResult(
+            c -> c.sql("select * from t order by d nulls first"),
+            rs -> {
+              int n = 0;
+              while (rs.next()) {
+                for (int col = 1; col <= 3; col++) {
+                  Object raw = rs.getResultSet().getObject(col);
+                  Assertions.assertThat(rs.getInstant(col)).isEqualTo(rs.toInstant(raw));
+                  Assertions.assertThat(rs.getZonedDateTime(col)).isEqualTo(rs.toZonedDateTime(raw));
+                  Assertions.assertThat(rs.getLocalDate(col))
+                      .isEqualTo(Results.toLocalDate(raw, rs.getSessionZone()));
+                }
+                // readers are chosen on the first non-null value, so none exist after the null row
+                Assertions.assertThat(rs.temporalReaders.instants[1] != null).isEqualTo(n > 0);
+                n++;
+              }
+              return n;
+            });
+    Assertions.assertThat(rows).isEqualTo(3);
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    c.close();
+  }
+}
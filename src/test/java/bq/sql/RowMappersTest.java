@@ -0,0 +1,106 @@
+package bq.sql;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RowMappersTest {
+
+  Connection c;
+  SqlTemplate template;
+
+  record Bar(LocalDate tradeDate, String ticker, double close, Long volume, int missing) {}
+
+  public static class Quote {
+    String ticker;
+    private double bid;
+    BigDecimal ask;
+    Instant ts;
+    UUID id;
+
+    public void setTicker(String ticker) {
+      this.ticker = "set:" + ticker;
+    }
+  }
+
+  @Test
+  public void testRecord() {
+    List<Bar> bars =
+        template.query(
+            b -> b.sql("select trade_date, ticker, close, volume from bars order by trade_date nulls last"),
+            Bar.class);
+
+    Assertions.assertThat(bars)
+        .containsExactly(
+            new Bar(LocalDate.of(2024, 1, 2), "AAPL", 185.5, 1000L, 0),
+            new Bar(LocalDate.of(2024, 1, 3), "AAPL", 184.25, 2000L, 0),
+            new Bar(null, null, Double.NaN, null, 0));
+
+    // same layout reuses the plan, a different column order builds a new one
+    long plans = RowMappers.getPlanCount();
+    template.query(b -> b.sql("select trade_date, ticker, close, volume from bars"), Bar.class);
+    Assertions.assertThat(RowMappers.getPlanCount()).isEqualTo(plans);
+    List<Bar> reordered =
+        template.query(
+            b -> b.sql("select volume, close, ticker from bars order by volume"),
+            RowMappers.of(Bar.class));
+    Assertions.assertThat(RowMappers.getPlanCount()).isEqualTo(plans + 1);
+    Assertions.assertThat(reordered.getFirst()).isEqualTo(new Bar(null, "AAPL", 185.5, 1000L, 0));
+    Assertions.assertThat(RowMappers.of(Bar.class)).isSameAs(RowMappers.of(Bar.class));
+  }
+
+  @Test
+  public void testBean() {
+    List<Quote> quotes =
+        template.query(
+            b ->
+                b.sql(
+                    "select 'MSFT' as TICKER, 1.5 as bid, 1.75 as ask, timestamp '2024-01-02 15:30:00' as ts, 'x' as extra, uuid '6f1c9a52-8a3e-4c1b-9f51-2d0c6e1b7a10' as id"),
+            Quote.class);
+
+    Quote q = quotes.getFirst();
+    Assertions.assertThat(q.ticker).isEqualTo("set:MSFT");
+    Assertions.assertThat(q.bid).isEqualTo(1.5);
+    Assertions.assertThat(q.ask).isEqualByComparingTo("1.75");
+    Assertions.assertThat(q.ts).isEqualTo(Instant.parse("2024-01-02T15:30:00Z"));
+    // types without a dedicated reader are left to the driver
+    Assertions.assertThat(q.id).isEqualTo(UUID.fromString("6f1c9a52-8a3e-4c1b-9f51-2d0c6e1b7a10"));
+  }
+
+  @Test
+  public void testStream() {
+    try (var s = template.stream(b -> b.sql("select * from bars where volume is not null"), Bar.class)) {
+      Assertions.assertThat(s.mapToDouble(Bar::close).sum()).isEqualTo(369.75);
+    }
+  }
+
+  @Test
+  public void testInvalidType() {
+    Assertions.assertThatThrownBy(() -> RowMappers.of(Runnable.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+    template.execute("create table bars (trade_date date, ticker varchar, close double, volume bigint)");
+    template.execute(
+        "insert into bars values ('2024-01-02', 'AAPL', 185.5, 1000), ('2024-01-03', 'AAPL', 184.25, 2000), (null, null, null, null)");
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    c.close();
+  }
+}
@@ -0,0 +1,101 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bq.util.Symbol;
+
+public class ScatterGatherTest {
+
+  Connection root;
+  ConnectionPool pool;
+  SqlTemplate template;
+
+  @Test
+  public void testToSql() {
+    Assertions.assertThat(ScatterGather.toSql("select * from ${table}", Symbol.parse("s:aapl")))
+        .isEqualTo("select * from S_AAPL");
+    Assertions.assertThat(ScatterGather.toSql("select * from ${table}", Symbol.parse("s:brk.b")))
+        .isEqualTo("select * from \"S_BRK.B\"");
+  }
+
+  @Test
+  public void testQuery() {
+    Symbol aapl = Symbol.parse("S:AAPL");
+    List<Symbol> symbols = List.of(Symbol.parse("X:BTC"), aapl, Symbol.parse("S:BRK.B"), aapl);
+
+    ScatterGather.Result<String> result =
+        ScatterGather.create(template, 2)
+            .query(
+                symbols,
+                (symbol, b) ->
+                    b.sql(
+                        ScatterGather.toSql(
+                            "select ticker from ${table} where close >= {{min}} order by close",
+                            symbol),
+                        100),
+                rs -> rs.getString("ticker").get());
+
+    Assertions.assertThat(result.hasFailures()).isFalse();
+    // the repeated instance is queried once
+    Assertions.assertThat(result.getResults().keySet())
+        .containsExactlyElementsOf(symbols.subList(0, 3));
+    Assertions.assertThat(result.getResults().get(aapl))
+        .containsExactly("AAPL", "AAPL");
+    Assertions.assertThat(result.concat())
+        .containsExactly("BTC", "AAPL", "AAPL", "BRK.B");
+  }
+
+  @Test
+  public void testPartialFailure() {
+    Symbol nope = Symbol.parse("S:NOPE");
+    List<Symbol> symbols = List.of(Symbol.parse("S:AAPL"), nope, Symbol.parse("X:BTC"));
+
+    ScatterGather.Result<Double> result =
+        ScatterGather.create(template, 4)
+            .query(symbols, "select close from ${table}", rs -> rs.getDouble("close").get());
+
+    Assertions.assertThat(result.hasFailures()).isTrue();
+    Assertions.assertThat(result.getFailures()).containsOnlyKeys(nope);
+    Assertions.assertThat(result.getFailures().get(nope))
+        .isInstanceOf(DbException.class);
+    Assertions.assertThat(result.getResults().keySet())
+        .containsExactly(symbols.get(0), symbols.get(2));
+    Assertions.assertThatThrownBy(() -> result.throwIfFailed())
+        .isInstanceOf(DbException.class)
+        .hasMessageContaining("1 of 3");
+  }
+
+  Connection duplicate() {
+    try {
+      return root.unwrap(org.duckdb.DuckDBConnection.class).duplicate();
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  @BeforeEach
+  void setup() throws SQLException {
+    root = DriverManager.getConnection("jdbc:duckdb:");
+    pool = ConnectionPool.create(this::duplicate).maxSize(4);
+    template = SqlTemplate.create(pool);
+    template.execute("create table S_AAPL as select 'AAPL' as ticker, range * 100.0 as close from range(3)");
+    template.execute("create table X_BTC (ticker varchar, close double)");
+    template.execute("insert into X_BTC values ('BTC', 60000)");
+    template.execute("create table \"S_BRK.B\" (ticker varchar, close double)");
+    template.execute("insert into \"S_BRK.B\" values ('BRK.B', 400)");
+  }
+
+  @AfterEach
+  void cleanup() throws SQLException {
+    pool.close();
+    root.close();
+  }
+}
@@ -0,0 +1,103 @@
+package bq.sql;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest extends TestTableFixture {
+
+  SingleFlight sf = SingleFlight.create();
+  ExecutorService executor = Executors.newFixedThreadPool(5);
+
+  CountDownLatch started = new CountDownLatch(1);
+  CountDownLatch release = new CountDownLatch(1);
+  volatile boolean fail = false;
+
+  final RowMapper<String> blocking =
+      r -> {
+        started.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        if (fail) {
+          throw new IllegalStateException("mapper failed");
+        }
+        return r.getString("name").orElse(null);
+      };
+
+  CompletableFuture<List<String>> query() {
+    return CompletableFuture.supplyAsync(
+        () -> template.query(b -> b.sql("select name from test where age >= {{age}}", 3), blocking),
+        executor);
+  }
+
+  List<CompletableFuture<List<String>>> runConcurrently() throws InterruptedException {
+    List<CompletableFuture<List<String>>> futures = Lists.newArrayList();
+    futures.add(query());
+    started.await(10, TimeUnit.SECONDS);
+    long shared = sf.getSharedCount();
+    for (int i = 0; i < 4; i++) {
+      futures.add(query());
+    }
+    while (sf.getSharedCount() < shared + 4) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+    return futures;
+  }
+
+  @Test
+  public void testShared() throws Exception {
+    List<CompletableFuture<List<String>>> futures = runConcurrently();
+
+    List<String> first = futures.getFirst().get();
+    Assertions.assertThat(first).containsExactly("n3", "n4");
+    for (CompletableFuture<List<String>> f : futures) {
+      Assertions.assertThat(f.get()).isSameAs(first);
+    }
+    Assertions.assertThat(sf.getExecutionCount()).isEqualTo(1);
+    Assertions.assertThat(sf.getSharedCount()).isEqualTo(4);
+    Assertions.assertThat(sf.getInFlightCount()).isEqualTo(0);
+
+    // nothing is kept once the query completes
+    template.executeUpdate("insert into test values ('n5', 5)");
+    Assertions.assertThat(query().get()).containsExactly("n3", "n4", "n5");
+    Assertions.assertThat(sf.getExecutionCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    fail = true;
+    List<CompletableFuture<List<String>>> futures = runConcurrently();
+
+    Assertions.assertThatThrownBy(() -> futures.getFirst().join())
+        .hasCauseInstanceOf(IllegalStateException.class);
+    for (CompletableFuture<List<String>> f : futures.subList(1, futures.size())) {
+      Assertions.assertThatThrownBy(f::join)
+          .hasCauseInstanceOf(DbException.class)
+          .hasRootCauseMessage("mapper failed");
+    }
+    Assertions.assertThat(sf.getInFlightCount()).isEqualTo(0);
+  }
+
+  @BeforeEach
+  void setup() {
+    template.withSingleFlight(sf);
+  }
+
+  @AfterEach
+  void cleanup() {
+    executor.shutdownNow();
+  }
+}
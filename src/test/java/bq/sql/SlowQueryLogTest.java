@@ -0,0 +1,58 @@
+package bq.sql;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Test;
+
+public class SlowQueryLogTest extends TestTableFixture {
+
+  List<String> logged = Lists.newArrayList();
+
+  @Test
+  public void testSlowQueryLog() {
+    SlowQueryLog log = SlowQueryLog.create().threshold(Duration.ZERO).maxPerMinute(2);
+    log.sink = logged::add;
+    template.withSlowQueryLog(log);
+
+    String sql = "select * from test where name <> {{api_key}} and age >= {{age}}";
+    for (int i = 0; i < 3; i++) {
+      template.query(
+          b -> b.sql(sql).bind("api_key", "sk-0123456789abcdef").bind("age", 2),
+          r -> r.getString("name"));
+    }
+
+    Assertions.assertThat(log.getLoggedCount()).isEqualTo(2);
+    Assertions.assertThat(log.getSuppressedCount()).isEqualTo(1);
+    Assertions.assertThat(logged.getFirst())
+        .startsWith("slow query took ")
+        .contains("acquire=", "prepare=", "execute=", "fetch=", "close=")
+        .contains("rows=3")
+        .contains("sql=<" + sql + ">")
+        .contains("binds={api_key=sk*****ef, age=2}")
+        .doesNotContain("0123456789");
+
+    // the suppressed entry is reported with the next one logged
+    log.windowStart.addAndGet(-SlowQueryLog.WINDOW_NANOS);
+    template.executeUpdate("update test set age = age + {{n}}", 1);
+    Assertions.assertThat(logged.getLast())
+        .contains("rows=5", "binds={n=1}", "(1 slow queries not logged)");
+
+    logged.clear();
+    log.sampleRate(0);
+    template.query(b -> b.sql(sql, "x", 1), r -> 1);
+    log.sampleRate(1).threshold(Duration.ofHours(1));
+    template.query(b -> b.sql(sql, "x", 1), r -> 1);
+    Assertions.assertThat(logged).isEmpty();
+  }
+
+  @Test
+  public void testFormatBind() {
+    Assertions.assertThat(SlowQueryLog.formatBind("password", "hunter2")).isEqualTo("*****");
+    Assertions.assertThat(SlowQueryLog.formatBind("ticker", null)).isEqualTo("null");
+    Assertions.assertThat(SlowQueryLog.formatBind("tickers", "x".repeat(500)))
+        .hasSize(SlowQueryLog.MAX_BIND_LENGTH + 3);
+  }
+}
@@ -0,0 +1,65 @@
+package bq.sql;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class SqlEventsTest extends TestTableFixture {
+
+  @Test
+  public void testRecording() throws Exception {
+    String sql = "select * from test where age >= {{age}}";
+    Assertions.assertThat(SqlEvents.recording).isFalse();
+    Assertions.assertThat(template.timerSinks).isNull();
+    Assertions.assertThat(QueryTimer.start(template.timerSinks, StatementBuilder.create().sql(sql)))
+        .isSameAs(QueryTimer.NOOP);
+
+    Path file = Files.createTempFile("sql-events", ".jfr");
+    try (Recording recording = new Recording()) {
+      for (String name : List.of("Acquire", "Prepare", "Execute", "Fetch", "Close")) {
+        recording.enable("bq.sql." + name).withoutThreshold();
+      }
+      recording.start();
+      Assertions.assertThat(SqlEvents.recording).isTrue();
+      Assertions.assertThat(template.timerSinks.jfr()).isTrue();
+
+      template.query(b -> b.sql(sql, 2), r -> r.getString("name"));
+      template.executeUpdate("update test set age = age + {{n}}", 1);
+
+      recording.stop();
+      recording.dump(file);
+    }
+    Assertions.assertThat(SqlEvents.recording).isFalse();
+    Assertions.assertThat(template.timerSinks).isNull();
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+
+    Map<String, List<RecordedEvent>> bySql =
+        events.stream().collect(Collectors.groupingBy(e -> e.getString("fingerprint")));
+    Assertions.assertThat(bySql.get(sql))
+        .extracting(e -> e.getEventType().getName())
+        .containsExactly(
+            "bq.sql.Acquire", "bq.sql.Prepare", "bq.sql.Execute", "bq.sql.Fetch", "bq.sql.Close");
+    RecordedEvent fetch = bySql.get(sql).get(3);
+    Assertions.assertThat(fetch.getLong("rows")).isEqualTo(3);
+    Assertions.assertThat(fetch.getInt("bindCount")).isEqualTo(1);
+    Assertions.assertThat(fetch.getFields()).extracting(f -> f.getName()).doesNotContain("binds");
+
+    RecordedEvent execute =
+        bySql.get("update test set age = age + {{n}}").stream()
+            .filter(e -> e.getEventType().getName().equals("bq.sql.Execute"))
+            .findFirst()
+            .get();
+    Assertions.assertThat(execute.getLong("rows")).isEqualTo(5);
+  }
+}
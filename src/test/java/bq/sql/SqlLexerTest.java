@@ -0,0 +1,124 @@
+package bq.sql;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.common.collect.Lists;
+
+public class SqlLexerTest {
+
+  // the recursive regex parser that SqlLexer replaced, kept as a reference
+  static final Pattern legacyPattern =
+      Pattern.compile("(.*?)\\{\\{(.*?)\\}\\}(.*)", Pattern.MULTILINE | Pattern.DOTALL);
+
+  static void legacyParse(String s, List<String> fragments, List<String> paramNames) {
+    Matcher m = legacyPattern.matcher(s);
+    if (m.matches()) {
+      legacyParse(m.group(1), fragments, paramNames);
+      paramNames.add(m.group(2).trim());
+      fragments.add("?");
+      legacyParse(m.group(3), fragments, paramNames);
+    } else {
+      fragments.add(s);
+    }
+  }
+
+  static List<String> interleave(SqlLexer lexer) {
+    List<String> list = Lists.newArrayList();
+    for (int i = 0; i < lexer.getParamCount(); i++) {
+      list.add(lexer.getFragments().get(i));
+      list.add("?");
+    }
+    list.add(lexer.getFragments().getLast());
+    return list;
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "select * from  test where foo={{bar}} and fizz={{buzz}}",
+        "select * from  test where foo={{ bar}} and fizz={{buzz }}",
+        "select * from  test",
+        "where foo={{bar}}",
+        "and fizz={{buzz}}",
+        "where foo={{foo_val}}",
+        "and fizz={{fizz_val}}",
+        " and baz={{baz_val}}",
+        "select age from test where name={{name}}",
+        "insert into test (name,age) values ({{name}}, {{age}})",
+        "{{a}}{{b}}",
+        "{{a}}",
+        "",
+        "select 1 where x={{x}\n and y={{y}}",
+        "select {{a}} \n from t \n where b={{b}} and c in ({{c1}},{{c2}},{{c3}})",
+        "select {{unterminated"
+      })
+  public void testMatchesLegacyParser(String sql) {
+    List<String> fragments = Lists.newArrayList();
+    List<String> paramNames = Lists.newArrayList();
+    legacyParse(sql, fragments, paramNames);
+
+    SqlLexer lexer = SqlLexer.lex(sql);
+
+    Assertions.assertThat(lexer.getParamNames()).isEqualTo(paramNames);
+    Assertions.assertThat(interleave(lexer)).isEqualTo(fragments);
+  }
+
+  @Test
+  public void testStatementBuilderMatchesLegacyParser() {
+    StringBuilder sb = new StringBuilder("insert into test (a,b) values ");
+    for (int i = 0; i < 500; i++) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append(String.format("({{a%d}},{{b%d}})", i, i));
+    }
+    String sql = sb.toString();
+
+    List<String> fragments = Lists.newArrayList();
+    List<String> paramNames = Lists.newArrayList();
+    legacyParse(sql, fragments, paramNames);
+
+    StatementBuilder b = StatementBuilder.create().sql(sql);
+    Assertions.assertThat(b.paramNames).isEqualTo(paramNames).hasSize(1000);
+    Assertions.assertThat(b.fragments).isEqualTo(fragments);
+  }
+
+  @Test
+  public void testQuotesAndComments() {
+    SqlLexer lexer = SqlLexer.lex("select '{{a}}', \"{{b}}\" from t where x={{x}} and y='it''s {{y}}'");
+    Assertions.assertThat(lexer.getParamNames()).containsExactly("x");
+    Assertions.assertThat(lexer.getFragments())
+        .containsExactly("select '{{a}}', \"{{b}}\" from t where x=", " and y='it''s {{y}}'");
+
+    lexer = SqlLexer.lex("select * -- {{a}}\n from t /* {{b}} */ where x={{x}}");
+    Assertions.assertThat(lexer.getParamNames()).containsExactly("x");
+    Assertions.assertThat(lexer.getFragments())
+        .containsExactly("select * -- {{a}}\n from t /* {{b}} */ where x=", "");
+
+    lexer = SqlLexer.lex("select 'unterminated {{a}}");
+    Assertions.assertThat(lexer.getParamNames()).isEmpty();
+  }
+
+  @Test
+  public void testNull() {
+    SqlLexer lexer = SqlLexer.lex(null);
+    Assertions.assertThat(lexer.getParamNames()).isEmpty();
+    Assertions.assertThat(lexer.getFragments()).containsExactly("");
+  }
+
+  @Test
+  public void testBindValueCountMismatch() {
+    Assertions.assertThatThrownBy(
+            () -> StatementBuilder.create().sql("select {{a}}, {{b}}, {{c}}", "x", "y"))
+        .isInstanceOf(DbException.class);
+    Assertions.assertThatThrownBy(() -> StatementBuilder.create().sql("select 1", "x"))
+        .isInstanceOf(DbException.class);
+  }
+}
@@ -1,10 +1,15 @@
 package bq.sql;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.assertj.core.api.Assertions;
 import org.assertj.core.util.Lists;
@@ -67,6 +72,325 @@ public class SqlTemplateTest {
 
     
   }
+  @Test
+  public void testExecuteBatch() {
+
+    template.execute("create table test (name varchar(10), age int)");
+
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < 25; i++) {
+      rows.add(Map.of("name", "n" + i, "age", i));
+    }
+    List<int[]> counts =
+        template.executeBatch("insert into test (name,age) values ({{name}}, {{age}})", rows, 10, true);
+
+    Assertions.assertThat(counts).hasSize(3);
+    Assertions.assertThat(counts.get(2)).hasSize(5);
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test"))).isEqualTo(25);
+    Assertions.assertThat(template.queryInt(c -> c.sql("select sum(age) from test"))).isEqualTo(300);
+
+    template.executeBatch(
+        "insert into test (name,age) values ({{name}}, {{age}})",
+        rows.stream().map(r -> Map.of("name", "x", "age", r.get("age"))));
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test where name='x'")))
+        .isEqualTo(25);
+
+    Assertions.assertThatThrownBy(
+            () ->
+                template.executeBatch(
+                    "delete from test where age in ({{ages}})",
+                    List.of(Map.of("ages", StatementBuilder.inList(List.of(1, 2, 3))))))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("IN lists");
+  }
+
+  @Test
+  public void testExecuteBatchRollback() {
+
+    template.execute("create table test (name varchar(10) not null, age int)");
+
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    rows.add(Map.of("name", "a", "age", 1));
+    rows.add(Map.of("age", 2));
+
+    checkExpected(
+        t -> {
+          t.executeBatch("insert into test (name,age) values ({{name}}, {{age}})", rows, 1, true);
+        });
+
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test"))).isEqualTo(0);
+  }
+
+  @Test
+  public void testStream() throws SQLException {
+
+    template.execute("create table test as select range as id from range(10000)");
+
+    List<ResultSet> resultSets = Lists.newArrayList();
+    try (Stream<Long> s =
+        template.stream(
+            c -> c.sql("select id from test order by id"),
+            rs -> {
+              if (resultSets.isEmpty()) {
+                resultSets.add(rs.getResultSet());
+              }
+              return rs.getLong("id").get();
+            })) {
+      Assertions.assertThat(s.limit(5).toList()).containsExactly(0L, 1L, 2L, 3L, 4L);
+    }
+    Assertions.assertThat(resultSets.get(0).isClosed()).isTrue();
+
+    resultSets.clear();
+    long sum =
+        template
+            .<Long>stream(
+                c -> c.sql("select id from test where id < {{max}}", 100),
+                rs -> {
+                  if (resultSets.isEmpty()) {
+                    resultSets.add(rs.getResultSet());
+                  }
+                  return rs.getLong("id").get();
+                })
+            .mapToLong(Long::longValue)
+            .sum();
+    Assertions.assertThat(sum).isEqualTo(4950L);
+    Assertions.assertThat(resultSets.get(0).isClosed()).isTrue();
+  }
+
+  @Test
+  public void testStatementOptions() {
+
+    template.execute("create table test as select range as id, 'name_' || range as name from range(1000)");
+
+    List<Long> ids =
+        template.query(
+            c -> c.sql("select id, name from test order by id").adaptiveFetchSize(),
+            rs -> rs.getLong("id").get());
+    Assertions.assertThat(ids).hasSize(1000);
+    Assertions.assertThat(
+            AdaptiveFetchSize.observedRowWidths.getIfPresent("select id, name from test order by id"))
+        .isBetween(8 + 6, 8 + 8);
+
+    // processors that iterate with Results.next() are sampled as well
+    String sql = "select name from test where id < 100 order by id";
+    int rows =
+        template.queryResult(
+            c -> c.sql(sql).adaptiveFetchSize(),
+            rs -> {
+              int n = 0;
+              while (rs.next()) {
+                n++;
+              }
+              return n;
+            });
+    Assertions.assertThat(rows).isEqualTo(100);
+    Assertions.assertThat(AdaptiveFetchSize.observedRowWidths.getIfPresent(sql)).isBetween(6, 7);
+  }
+
+  @Test
+  public void testAdaptiveFetchSize() {
+    Assertions.assertThat(AdaptiveFetchSize.fetchSizeForRowWidth(8)).isEqualTo(AdaptiveFetchSize.MAX_FETCH_SIZE);
+    Assertions.assertThat(AdaptiveFetchSize.fetchSizeForRowWidth(1024)).isEqualTo(1024);
+    Assertions.assertThat(AdaptiveFetchSize.fetchSizeForRowWidth(1024 * 1024)).isEqualTo(AdaptiveFetchSize.MIN_FETCH_SIZE);
+  }
+
+  @Test
+  public void testStatementCache() throws SQLException {
+
+    StatementCache cache = StatementCache.create(2);
+    template.withStatementCache(cache);
+
+    template.execute("create table test (name varchar(10), age int)");
+    for (int i = 0; i < 5; i++) {
+      template.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "n" + i, i);
+    }
+    for (int i = 0; i < 5; i++) {
+      int age = i;
+      Assertions.assertThat(template.queryString(c -> c.sql("select name from test where age={{age}}", age)))
+          .isEqualTo("n" + i);
+    }
+    Assertions.assertThat(cache.getMissCount()).isEqualTo(3);
+    Assertions.assertThat(cache.getHitCount()).isEqualTo(8);
+    // the create table statement was evicted by the select
+    Assertions.assertThat(cache.getEvictionCount()).isEqualTo(1);
+    Assertions.assertThat(cache.size()).isEqualTo(2);
+
+    template.queryInt(c -> c.sql("select count(*) from test"));
+    Assertions.assertThat(cache.getEvictionCount()).isEqualTo(2);
+    Assertions.assertThat(cache.size()).isEqualTo(2);
+
+    cache.clear(connections.getFirst());
+    Assertions.assertThat(cache.size()).isEqualTo(0);
+
+    // options set by a deferred binding must not leak into the next caller's statement. DuckDB
+    // ignores maxRows, so check that the next caller gets a different statement.
+    List<java.sql.Statement> limited = Lists.newArrayList();
+    Assertions.assertThat(
+            template.query(
+                c ->
+                    c.sql("select name from test order by age")
+                        .bind(
+                            st -> {
+                              setMaxRows(st, 1);
+                              limited.add(st);
+                            }),
+                rs -> rs.getString("name").get()))
+        .hasSize(5);
+    java.sql.Statement next =
+        template.queryResult(
+            c -> c.sql("select name from test order by age"),
+            rs -> rs.getResultSet().getStatement());
+    Assertions.assertThat(next).isNotSameAs(limited.getFirst());
+    Assertions.assertThat(
+            template.query(
+                c -> c.sql("select name from test order by age"), rs -> rs.getString("name").get()))
+        .hasSize(5);
+  }
+
+  static void setMaxRows(java.sql.Statement st, int rows) {
+    try {
+      st.setMaxRows(rows);
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  @Test
+  public void testInList() {
+    StatementCache cache = StatementCache.create(4);
+    template.withStatementCache(cache);
+    template.execute("create table test (name varchar(10), age int)");
+    for (int i = 0; i < 10; i++) {
+      template.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "n" + i, i);
+    }
+
+    long misses = cache.getMissCount();
+    for (int n = 5; n <= 8; n++) {
+      List<Integer> ages = Lists.newArrayList();
+      for (int i = 0; i < n; i++) {
+        ages.add(i);
+      }
+      Assertions.assertThat(
+              template.queryInt(
+                  c ->
+                      c.sql(
+                          "select count(*) from test where age in ({{ages}})",
+                          StatementBuilder.inList(ages))))
+          .isEqualTo(n);
+    }
+    // 5 to 8 elements all render as 8 placeholders
+    Assertions.assertThat(cache.getMissCount()).isEqualTo(misses + 1);
+
+    List<String> names = List.of("n1", "n3", "n5", "x");
+    Assertions.assertThat(
+            template.queryInt(
+                c ->
+                    c.sql("select count(*) from test where name in ({{names}})")
+                        .bindInList("names", names)
+                        .arrayBindThreshold(2)))
+        .isEqualTo(3);
+  }
+
+  @Test
+  public void testInTransaction() {
+
+    template.execute("create table test (name varchar(10), age int)");
+
+    int count =
+        template.inTransaction(
+            t -> {
+              t.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "homer", 7);
+              // a separate template on the same supplier joins the transaction
+              SqlTemplate.create(t.connectionSupplier)
+                  .inTransaction(
+                      () -> t.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "rosie", 3));
+              return t.queryInt(c -> c.sql("select count(*) from test"));
+            });
+    Assertions.assertThat(count).isEqualTo(2);
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test"))).isEqualTo(2);
+
+    checkExpected(
+        t ->
+            t.inTransaction(
+                () -> {
+                  t.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "bart", 10);
+                  t.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "lisa", "x");
+                }));
+    Assertions.assertThat(template.queryInt(c -> c.sql("select count(*) from test"))).isEqualTo(2);
+    Assertions.assertThat(SqlTemplate.scopes.get()).isNull();
+  }
+
+  @Test
+  public void testInTransactionAutoCommitFailure() throws SQLException {
+    Connection c = connections.getFirst();
+    SqlTemplate t =
+        SqlTemplate.create(
+            () ->
+                (Connection)
+                    Proxy.newProxyInstance(
+                        getClass().getClassLoader(),
+                        new Class<?>[] {Connection.class},
+                        (proxy, method, args) -> {
+                          if (method.getName().equals("close")) {
+                            return null;
+                          }
+                          if (method.getName().equals("setAutoCommit") && (Boolean) args[0]) {
+                            throw new SQLException("cannot restore autoCommit");
+                          }
+                          try {
+                            return method.invoke(c, args);
+                          } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                          }
+                        }));
+
+    // the transaction's own failure wins, with the autoCommit failure attached
+    Assertions.assertThatThrownBy(
+            () ->
+                t.inTransaction(
+                    () -> {
+                      throw new IllegalStateException("boom");
+                    }))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("boom")
+        .satisfies(
+            e ->
+                Assertions.assertThat(e.getSuppressed())
+                    .anySatisfy(
+                        s -> Assertions.assertThat(s).hasMessage("cannot restore autoCommit")));
+
+    c.setAutoCommit(true);
+
+    // without one, the autoCommit failure is reported
+    Assertions.assertThatThrownBy(() -> t.inTransaction(() -> {}))
+        .isInstanceOf(DbException.class)
+        .hasRootCauseMessage("cannot restore autoCommit");
+    c.setAutoCommit(true);
+  }
+
+  @Test
+  public void testWithConnection() {
+    List<Connection> acquired = Lists.newArrayList();
+    SqlTemplate t =
+        SqlTemplate.create(
+            () -> {
+              Connection c = connections.getFirst();
+              acquired.add(c);
+              return c;
+            });
+
+    t.withConnection(
+        () -> {
+          t.execute("create table test (name varchar(10), age int)");
+          t.executeUpdate("insert into test (name,age) values ({{name}}, {{age}})", "homer", 7);
+          t.queryInt(c -> c.sql("select count(*) from test"));
+        });
+    Assertions.assertThat(acquired).hasSize(1);
+
+    t.queryInt(c -> c.sql("select count(*) from test"));
+    Assertions.assertThat(acquired).hasSize(2);
+  }
+
   ////////
   ////////
   ////////
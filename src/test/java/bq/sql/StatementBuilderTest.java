@@ -1,11 +1,23 @@
 package bq.sql;
 
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 import org.assertj.core.api.Assertions;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.Test;
 
+import com.google.common.collect.Maps;
+
 public class StatementBuilderTest {
 
   
@@ -51,4 +63,155 @@ public class StatementBuilderTest {
    Assertions.assertThat(b.paramNames).containsExactly("foo_val","fizz_val","baz_val");
    Assertions.assertThat(b.bindings).containsEntry("_1", "foo_val").containsEntry("_3", null).hasSize(2);
  }
+
+ @Test
+ public void testTemplateCache() {
+   String sql = "select * from test where cached_foo={{bar}}";
+   StatementBuilder.create().sql(sql);
+   long hits = ParsedSql.getCacheStats().hitCount();
+   long misses = ParsedSql.getCacheStats().missCount();
+
+   StatementBuilder b = StatementBuilder.create().sql(sql, "x");
+
+   Assertions.assertThat(ParsedSql.getCacheStats().hitCount()).isEqualTo(hits + 1);
+   Assertions.assertThat(ParsedSql.getCacheStats().missCount()).isEqualTo(misses);
+   Assertions.assertThat(b.getSql()).isSameAs(ParsedSql.parse(sql).getSql());
+   Assertions.assertThat(b.getSql()).isEqualTo("select * from test where cached_foo=?");
+ }
+ @Test
+ public void testStatementOptions() throws SQLException {
+   Map<String, Object> calls = Maps.newHashMap();
+   Statement st =
+       (Statement)
+           Proxy.newProxyInstance(
+               getClass().getClassLoader(),
+               new Class<?>[] {Statement.class},
+               (proxy, method, args) -> {
+                 calls.put(method.getName(), args[0]);
+                 return null;
+               });
+
+   StatementBuilder b =
+       StatementBuilder.create()
+           .sql("select * from test")
+           .fetchSize(250)
+           .maxRows(10)
+           .queryTimeout(Duration.ofMillis(1500))
+           .scrollable()
+           .readOnly();
+   b.applyOptions(st);
+
+   Assertions.assertThat(calls)
+       .containsEntry("setFetchSize", 250)
+       .containsEntry("setMaxRows", 10)
+       .containsEntry("setQueryTimeout", 2);
+   Assertions.assertThat(b.resultSetType).isEqualTo(ResultSet.TYPE_SCROLL_INSENSITIVE);
+   Assertions.assertThat(b.resultSetConcurrency).isEqualTo(ResultSet.CONCUR_READ_ONLY);
+
+   calls.clear();
+   StatementBuilder.create().sql("select * from test").adaptiveFetchSize().applyOptions(st);
+   Assertions.assertThat(calls).isEmpty();
+ }
+ @Test
+ public void testBindPlan() throws SQLException {
+   List<String> calls = Lists.newArrayList();
+   PreparedStatement ps =
+       (PreparedStatement)
+           Proxy.newProxyInstance(
+               getClass().getClassLoader(),
+               new Class<?>[] {PreparedStatement.class},
+               (proxy, method, args) -> {
+                 String arg = args[1] == null ? "null" : args[1].getClass().getSimpleName();
+                 calls.add(method.getName() + "(" + args[0] + "," + arg + ")");
+                 return null;
+               });
+
+   StatementBuilder b =
+       StatementBuilder.create()
+           .sql("select * from test where a={{a}} and b={{b}} and c={{c}}", 1L, 2.5, "x")
+           .sql("and d={{d}} and e={{e}} and f={{f}} and g={{g}}")
+           .bind("d", LocalDate.of(2024, 1, 2))
+           .bind("e", Instant.parse("2024-01-02T03:04:05Z"))
+           .bind("f", null)
+           .bind("g", BigInteger.TEN)
+           .bind(st -> calls.add("deferred"));
+   b.bind(ps);
+
+   Assertions.assertThat(calls)
+       .containsExactly(
+           "setLong(1,Long)",
+           "setDouble(2,Double)",
+           "setString(3,String)",
+           "setObject(4,LocalDate)",
+           "setTimestamp(5,Timestamp)",
+           "setObject(6,null)",
+           "setObject(7,BigInteger)",
+           "deferred");
+
+   // the plan is cached with the template and follows the value class
+   ParsedSql parsed = ParsedSql.parse("select * from test where a={{a}} and b={{b}} and c={{c}}");
+   Assertions.assertThat(parsed.bindPlan.slots[0].type()).isEqualTo(Long.class);
+   calls.clear();
+   StatementBuilder.create()
+       .sql("select * from test where a={{a}} and b={{b}} and c={{c}}", 1, true, null)
+       .bind(ps);
+   Assertions.assertThat(calls)
+       .containsExactly("setInt(1,Integer)", "setBoolean(2,Boolean)", "setObject(3,null)");
+   Assertions.assertThat(parsed.bindPlan.slots[0].type()).isEqualTo(Integer.class);
+
+   // deferred bindings apply once, even without parameters
+   calls.clear();
+   StatementBuilder.create().sql("select 1").bind(st -> calls.add("deferred")).bind(ps);
+   Assertions.assertThat(calls).containsExactly("deferred");
+ }
+
+ @Test
+ public void testCollectionExpansion() throws SQLException {
+   List<String> calls = Lists.newArrayList();
+   PreparedStatement ps =
+       (PreparedStatement)
+           Proxy.newProxyInstance(
+               getClass().getClassLoader(),
+               new Class<?>[] {PreparedStatement.class},
+               (proxy, method, args) -> {
+                 calls.add(args[0] + "=" + args[1]);
+                 return null;
+               });
+
+   StatementBuilder b =
+       StatementBuilder.create()
+           .sql("select * from test where ticker in ({{tickers}}) and d={{d}}")
+           .bindInList("tickers", List.of("A", "B", "C"))
+           .bind("d", 1);
+   Assertions.assertThat(b.getSql())
+       .isEqualTo("select * from test where ticker in ( ?, ?, ?, ? ) and d=?");
+   b.bind(ps);
+   Assertions.assertThat(calls).containsExactly("1=A", "2=B", "3=C", "4=C", "5=1");
+
+   // lengths in the same bucket share the statement text
+   Assertions.assertThat(
+           StatementBuilder.create()
+               .sql(
+                   "select * from test where ticker in ({{tickers}}) and d={{d}}",
+                   StatementBuilder.inList(List.of("X", "Y", "Z", "W")),
+                   2)
+               .getSql())
+       .isEqualTo(b.getSql());
+
+   // a collection that isn't marked as an IN list is bound as a single value
+   calls.clear();
+   StatementBuilder list =
+       StatementBuilder.create().sql("insert into test values ({{tags}})", List.of("A", "B"));
+   Assertions.assertThat(list.getSql()).isEqualTo("insert into test values ( ? )");
+   list.bind(ps);
+   Assertions.assertThat(calls).containsExactly("1=[A, B]");
+
+   // an empty IN list would render as (NULL), which NOT IN never matches
+   Assertions.assertThatThrownBy(() -> StatementBuilder.inList(List.of()))
+       .isInstanceOf(IllegalArgumentException.class);
+
+   Assertions.assertThat(StatementBuilder.placeholderCount(List.of(1))).isEqualTo(1);
+   Assertions.assertThat(StatementBuilder.placeholderCount(List.of(1, 2))).isEqualTo(2);
+   Assertions.assertThat(StatementBuilder.placeholderCount(List.of(1, 2, 3, 4, 5))).isEqualTo(8);
+ }
 }
@@ -0,0 +1,30 @@
+package bq.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+/**
+ * Base for tests that run against an in-memory database with a table test(name, age) holding the
+ * rows ('n0', 0) through ('n4', 4).
+ */
+abstract class TestTableFixture {
+
+  Connection c;
+  SqlTemplate template;
+
+  @BeforeEach
+  void createTestTable() throws SQLException {
+    c = DriverManager.getConnection("jdbc:duckdb:");
+    template = SqlTemplate.create(() -> c);
+    template.execute("create table test as select 'n' || range as name, range as age from range(5)");
+  }
+
+  @AfterEach
+  void closeConnection() throws SQLException {
+    c.close();
+  }
+}